@@ -11,8 +11,11 @@ import net.fabricmc.fabric.api.client.networking.v1.ClientConfigurationNetworkin
 import net.fabricmc.fabric.api.client.networking.v1.ClientLoginNetworking;
 import net.litetex.authback.client.keys.ClientKeysManager;
 import net.litetex.authback.shared.crypto.Ed25519Signature;
+import net.litetex.authback.shared.crypto.KeyFingerprint;
 import net.litetex.authback.shared.network.ChannelNames;
 import net.litetex.authback.shared.network.configuration.ConfigurationRegistrySetup;
+import net.litetex.authback.shared.network.configuration.SyncAnnouncePayloadC2S;
+import net.litetex.authback.shared.network.configuration.SyncAnnounceRequestPayloadS2C;
 import net.litetex.authback.shared.network.configuration.SyncPayloadC2S;
 import net.litetex.authback.shared.network.configuration.SyncPayloadS2C;
 import net.minecraft.network.FriendlyByteBuf;
@@ -77,5 +80,20 @@ public class AuthBackClientNetworking
 					keyPair.getPublic().getEncoded()
 				)));
 			});
+		
+		// v2: Only announce the key - the server requests a signature (v1) if required
+		ClientConfigurationNetworking.registerGlobalReceiver(
+			SyncAnnounceRequestPayloadS2C.ID,
+			(payload, context) -> {
+				if(!ClientConfigurationNetworking.canSend(SyncAnnouncePayloadC2S.ID))
+				{
+					LOG.debug("Unable to send {}", SyncAnnouncePayloadC2S.ID);
+					return;
+				}
+				
+				LOG.debug("Announcing key to server");
+				context.packetListener().send(new ServerboundCustomPayloadPacket(new SyncAnnouncePayloadC2S(
+					KeyFingerprint.of(this.clientKeysManager.currentKeyPair().getPublic().getEncoded()))));
+			});
 	}
 }
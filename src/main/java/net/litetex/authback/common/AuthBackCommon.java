@@ -5,16 +5,27 @@ import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mojang.authlib.GameProfileRepository;
 
+import net.litetex.authback.common.circuitbreaker.CircuitBreaker;
+import net.litetex.authback.common.circuitbreaker.CircuitBreakers;
 import net.litetex.authback.common.config.AuthBackCommonConfig;
+import net.litetex.authback.common.gameprofile.EvictionPolicy;
 import net.litetex.authback.common.gameprofile.GameProfileCacheManager;
+import net.litetex.authback.common.gameprofile.ProfileFreshnessPolicy;
 import net.litetex.authback.common.players.AuthbackCachedUserNameToIdResolver;
+import net.litetex.authback.common.players.BulkNameRefresher;
 import net.litetex.authback.shared.AuthBack;
 import net.litetex.authback.shared.external.com.google.common.base.Suppliers;
+import net.litetex.authback.shared.io.PersistFormat;
+import net.litetex.authback.shared.io.PersistScheduler;
+import net.litetex.authback.shared.io.Persister;
+import net.litetex.authback.shared.io.StartupLoader;
+import net.litetex.authback.shared.maintenance.MaintenanceScheduler;
 import net.minecraft.server.players.CachedUserNameToIdResolver;
 import net.minecraft.server.players.UserNameToIdResolver;
 
@@ -35,9 +46,16 @@ public class AuthBackCommon extends AuthBack
 		AuthBackCommon.instance = instance;
 	}
 	
+	private final PersistFormat persistFormat;
+	private final PersistScheduler persistScheduler;
+	private final MaintenanceScheduler maintenanceScheduler;
+	private final StartupLoader startupLoader;
 	private final GlobalPublicKeysCache globalPublicKeysCache;
+	private final CircuitBreakers circuitBreakers;
 	private final CompletableFuture<GameProfileCacheManager> cfGameProfileCacheManager;
 	private final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier;
+	@Nullable
+	private final ProfileFreshnessPolicy profileFreshnessPolicy;
 	
 	private final AuthBackCommonConfig config;
 	
@@ -46,27 +64,80 @@ public class AuthBackCommon extends AuthBack
 	{
 		super(envType);
 		
+		Persister.setFsync(this.lowLevelConfig.getBoolean("persistence.fsync", false));
+		this.persistFormat = PersistFormat.parse(this.lowLevelConfig.getString("persistence.format", "json"));
+		this.persistScheduler = new PersistScheduler(
+			// Coalesce bursts of modifications (e.g. many logins) into a single write
+			Duration.ofMillis(this.lowLevelConfig.getInteger("persistence.save-debounce-ms", 2000)),
+			Duration.ofMillis(this.lowLevelConfig.getInteger("persistence.save-max-delay-ms", 30000)));
+		this.maintenanceScheduler = new MaintenanceScheduler(
+			Duration.ofMinutes(Math.max(this.lowLevelConfig.getInteger("maintenance.interval-minutes", 720), 1)),
+			this.lowLevelConfig.getInteger("maintenance.jitter-percent", 10),
+			this.lowLevelConfig.getInteger("maintenance.cleanup-batch-size", 256));
+		
+		this.circuitBreakers = CircuitBreakers.create(this.lowLevelConfig);
+		
 		this.globalPublicKeysCache = new GlobalPublicKeysCache(
 			this.authbackDir.resolve("global-public-keys.json"),
+			this.persistScheduler,
 			this.lowLevelConfig.getInteger("global-public-keys-cache.default-reuse-minutes", 120));
 		
-		this.cfGameProfileCacheManager = CompletableFuture.supplyAsync(() -> new GameProfileCacheManager(
-			this.authbackDir.resolve("game-profiles.json"),
-			// When a player changes their username the name will be unavailable for 37 days
-			Duration.ofDays(this.lowLevelConfig.getInteger("game-profiles.delete-after-days", 36)),
-			this.lowLevelConfig.getInteger("game-profiles.max-cache-size", 250)));
+		this.startupLoader = new StartupLoader(this.lowLevelConfig.getInteger("startup.threads", 2));
+		
+		final int maxCachedGameProfiles = this.lowLevelConfig.getInteger("game-profiles.max-cache-size", 250);
+		this.cfGameProfileCacheManager = this.startupLoader.load(
+			"game-profiles",
+			() -> new GameProfileCacheManager(
+				this.authbackDir.resolve("game-profiles.json"),
+				this.persistFormat,
+				this.persistScheduler,
+				this.maintenanceScheduler,
+				// When a player changes their username the name will be unavailable for 37 days
+				Duration.ofDays(this.lowLevelConfig.getInteger("game-profiles.delete-after-days", 36)),
+				maxCachedGameProfiles,
+				EvictionPolicy.parse(this.lowLevelConfig.getString("game-profiles.eviction-policy", "fifo")),
+				this.lowLevelConfig.getInteger("game-profiles.max-cache-bytes", 8 * 1024 * 1024),
+				this.lowLevelConfig.getInteger("game-profiles.decoded-cache-size", 64),
+				this.lowLevelConfig.getBoolean("game-profiles.lazy-startup", false)),
+			GameProfileCacheManager::size);
 		this.gameProfileCacheManagerSupplier = Suppliers.memoize(this.cfGameProfileCacheManager::join);
+		this.profileFreshnessPolicy = ProfileFreshnessPolicy.create(this.lowLevelConfig, maxCachedGameProfiles);
 		
 		this.config = new AuthBackCommonConfig(this.lowLevelConfig);
 		
 		LOG.debug("Initialized");
 	}
 	
+	public PersistFormat persistFormat()
+	{
+		return this.persistFormat;
+	}
+	
+	public PersistScheduler persistScheduler()
+	{
+		return this.persistScheduler;
+	}
+	
+	public MaintenanceScheduler maintenanceScheduler()
+	{
+		return this.maintenanceScheduler;
+	}
+	
+	public StartupLoader startupLoader()
+	{
+		return this.startupLoader;
+	}
+	
 	public GlobalPublicKeysCache publicKeysCache()
 	{
 		return this.globalPublicKeysCache;
 	}
 	
+	public CircuitBreakers circuitBreakers()
+	{
+		return this.circuitBreakers;
+	}
+	
 	@SuppressWarnings("checkstyle:MagicNumber")
 	public UserNameToIdResolver createUserNameToIdResolver(
 		final GameProfileRepository gameProfileRepository,
@@ -81,9 +152,21 @@ public class AuthBackCommon extends AuthBack
 			return new CachedUserNameToIdResolver(gameProfileRepository, new File(gameDir, cacheFile));
 		}
 		
+		final CircuitBreaker lookupCircuitBreaker = this.circuitBreakers.forHost(CircuitBreakers.PROFILE_LOOKUP_HOST);
+		final String bulkRefreshConfigPrefix = configPrefix + "bulk-refresh.";
 		return new AuthbackCachedUserNameToIdResolver(
 			gameProfileRepository,
+			lookupCircuitBreaker,
+			new BulkNameRefresher(
+				gameProfileRepository,
+				lookupCircuitBreaker,
+				// The API allows a maximum of 10 names per request
+				this.lowLevelConfig.getInteger(bulkRefreshConfigPrefix + "batch-size", 10),
+				this.lowLevelConfig.getInteger(bulkRefreshConfigPrefix + "max-concurrent-requests", 2),
+				Duration.ofMillis(this.lowLevelConfig.getInteger(bulkRefreshConfigPrefix + "delay-ms", 250))),
 			gameDir.toPath().resolve(this.lowLevelConfig.getString("cache-file", cacheFile)),
+			this.persistScheduler,
+			this.maintenanceScheduler,
 			this.cfGameProfileCacheManager,
 			this.gameProfileCacheManagerSupplier,
 			// When a player changes their username the name will be unavailable for 37 days
@@ -91,6 +174,9 @@ public class AuthBackCommon extends AuthBack
 			Duration.ofDays(this.lowLevelConfig.getInteger(configPrefix + "expire-after-days", 36)),
 			Duration.ofDays(this.lowLevelConfig.getInteger(configPrefix + "refresh-before-expire-days", 14)),
 			this.lowLevelConfig.getInteger(configPrefix + "max-cache-size", 1000),
+			// Names that don't exist are not looked up again during this time
+			Duration.ofSeconds(this.lowLevelConfig.getInteger(configPrefix + "negative-expire-after-seconds", 60)),
+			this.lowLevelConfig.getInteger(configPrefix + "negative-max-cache-size", 500),
 			// true is the default
 			// servers might disable this via resolveOfflineUsers when online-mode=true (default)
 			this.lowLevelConfig.getBoolean(configPrefix + "resolve-offline-users-by-default", true),
@@ -107,6 +193,12 @@ public class AuthBackCommon extends AuthBack
 		return this.gameProfileCacheManagerSupplier;
 	}
 	
+	@Nullable
+	public ProfileFreshnessPolicy profileFreshnessPolicy()
+	{
+		return this.profileFreshnessPolicy;
+	}
+	
 	public AuthBackCommonConfig config()
 	{
 		return this.config;
@@ -4,95 +4,262 @@ import java.net.URL;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mojang.authlib.exceptions.MinecraftClientException;
+
 import net.litetex.authback.shared.external.com.google.common.base.Suppliers;
+import net.litetex.authback.shared.io.PersistScheduler;
 import net.litetex.authback.shared.io.Persister;
 import net.litetex.authback.shared.json.JSONSerializer;
+import net.minecraft.util.Util;
 
 
+/**
+ * Caches the responses of the global public keys (of Mojang's API) in memory - one entry per URL.
+ * <p>
+ * Within the reuse duration the cached response is used directly.
+ * Afterward the cached response is still used while a new one is fetched in the background.
+ * The API is only contacted in a blocking way when there is no usable cached response.
+ * </p>
+ */
 public class GlobalPublicKeysCache
 {
 	private static final Logger LOG = LoggerFactory.getLogger(GlobalPublicKeysCache.class);
 	
 	private final Path cacheFile;
+	private final PersistScheduler.Registration persistRegistration;
 	
 	private final Optional<Duration> optDefaultReuseDuration;
 	
-	public GlobalPublicKeysCache(final Path cacheFile, final int defaultReuseMinutes)
+	// Key = URL
+	private final Supplier<Map<String, CachedResponse>> urlResponsesSupplier = Suppliers.memoize(this::readFile);
+	private final Set<String> refreshingUrls = ConcurrentHashMap.newKeySet();
+	
+	public GlobalPublicKeysCache(
+		final Path cacheFile,
+		final PersistScheduler persistScheduler,
+		final int defaultReuseMinutes)
 	{
 		this.cacheFile = cacheFile;
+		this.persistRegistration = persistScheduler.register(cacheFile.getFileName().toString(), this::saveToFile);
 		this.optDefaultReuseDuration = defaultReuseMinutes > 0
 			? Optional.of(Duration.ofMinutes(defaultReuseMinutes))
 			: Optional.empty();
 	}
 	
-	public Optional<Duration> optDefaultReuseDuration()
+	private Map<String, CachedResponse> urlResponses()
 	{
-		return this.optDefaultReuseDuration;
+		return this.urlResponsesSupplier.get();
 	}
 	
-	public void saveAsync(final URL url, final Object response)
+	/**
+	 * @param fetcher fetches the response from the API
+	 */
+	public <T> T get(final URL url, final Class<T> responseClass, final Supplier<T> fetcher)
 	{
-		CompletableFuture.runAsync(() -> this.save(url, response));
+		final CachedResponse cachedResponse = this.urlResponses().get(url.toString());
+		final T cached = cachedResponse != null ? cachedResponse.response(responseClass) : null;
+		
+		if(cached != null && this.optDefaultReuseDuration.isPresent())
+		{
+			if(cachedResponse.createdAt().isAfter(Instant.now().minus(this.optDefaultReuseDuration.get())))
+			{
+				LOG.debug("Using cached response for {}", url);
+				return cached;
+			}
+			
+			LOG.info("Using cached response for {} while refreshing it in the background", url);
+			this.refreshInBackground(url, fetcher);
+			return cached;
+		}
+		
+		return this.fetch(url, fetcher, cached);
 	}
 	
-	private synchronized void save(final URL url, final Object response)
+	private <T> void refreshInBackground(final URL url, final Supplier<T> fetcher)
 	{
-		Persister.trySave(
-			LOG,
-			this.cacheFile,
-			() -> new PersistentContainer(
-				url.toString(),
-				Instant.now(),
-				JSONSerializer.FAST_OBJECT_MAPPER.writeValueAsString(response)));
+		if(!this.refreshingUrls.add(url.toString()))
+		{
+			return;
+		}
+		
+		CompletableFuture.runAsync(
+			() -> {
+				try
+				{
+					this.fetch(url, fetcher, null);
+				}
+				catch(final Exception ex)
+				{
+					LOG.warn("Failed to refresh cached response for {} in the background", url, ex);
+				}
+				finally
+				{
+					this.refreshingUrls.remove(url.toString());
+				}
+			}, Util.nonCriticalIoPool());
+	}
+	
+	private <T> T fetch(final URL url, final Supplier<T> fetcher, final T fallback)
+	{
+		try
+		{
+			final long startMs = System.currentTimeMillis();
+			final T response = fetcher.get();
+			LOG.info(
+				"Took {}ms to get response for {}",
+				System.currentTimeMillis() - startMs,
+				url);
+			
+			if(response == null)
+			{
+				LOG.warn("Got empty response from server");
+				return logUseCachedResponse(fallback);
+			}
+			
+			this.put(url, response);
+			return response;
+		}
+		catch(final MinecraftClientException ex)
+		{
+			if(fallback == null)
+			{
+				throw ex;
+			}
+			
+			LOG.warn("Failed to get public key from servers", ex);
+			return logUseCachedResponse(fallback);
+		}
+	}
+	
+	private static <T> T logUseCachedResponse(final T value)
+	{
+		if(value != null)
+		{
+			LOG.info("Using cached response");
+		}
+		return value;
 	}
 	
-	public <T> Optional<CachedResponse<T>> read(final URL url, final Class<T> responseClass)
+	private void put(final URL url, final Object response)
 	{
-		return Persister.tryRead(LOG, this.cacheFile, PersistentContainer.class)
+		this.urlResponses().put(url.toString(), new CachedResponse(
+			Instant.now(),
+			JSONSerializer.FAST_OBJECT_MAPPER.writeValueAsString(response),
+			response));
+		this.persistRegistration.markDirty();
+	}
+	
+	// region Persistence
+	
+	private Map<String, CachedResponse> readFile()
+	{
+		final long startMs = System.currentTimeMillis();
+		final Map<String, CachedResponse> urlResponses = new ConcurrentHashMap<>();
+		
+		final Instant now = Instant.now();
+		Persister.tryRead(LOG, this.cacheFile, PersistentState.class)
+			.map(PersistentState::entries)
+			.map(List::stream)
+			// Fallback: Legacy format with only a single entry
+			.orElseGet(() -> Persister.tryRead(LOG, this.cacheFile, PersistentContainer.class).stream())
 			// Validate
-			.filter(persistentContainer -> url.toString().equals(persistentContainer.url())
-				&& persistentContainer.createdAt() != null
-				&& persistentContainer.createdAt().isBefore(Instant.now())
-				&& persistentContainer.response() != null)
-			.map(persistentContainer -> new CachedResponse<>(
-				persistentContainer.createdAt(),
-				Suppliers.memoize(() ->
-				{
-					final long startMs2 = System.currentTimeMillis();
-					try
-					{
-						return JSONSerializer.FAST_OBJECT_MAPPER.readValue(
-							persistentContainer.response(),
-							responseClass);
-					}
-					catch(final Exception e2)
-					{
-						LOG.warn("Failed to cached response", e2);
-						return null;
-					}
-					finally
-					{
-						LOG.debug("Took {}ms to deserialize response", System.currentTimeMillis() - startMs2);
-					}
-				})
-			));
+			.filter(c -> c != null
+				&& c.url() != null
+				&& c.createdAt() != null
+				&& c.createdAt().isBefore(now)
+				&& c.response() != null)
+			.forEach(c -> urlResponses.put(c.url(), new CachedResponse(c.createdAt(), c.response(), null)));
+		
+		LOG.debug("Took {}ms to read {}x cached responses", System.currentTimeMillis() - startMs, urlResponses.size());
+		return urlResponses;
 	}
 	
-	public record CachedResponse<T>(
-		Instant createdAt,
-		Supplier<T> reponseSupplier)
+	private synchronized boolean saveToFile()
+	{
+		final List<PersistentContainer> entries = this.urlResponses().entrySet()
+			.stream()
+			.map(e -> new PersistentContainer(
+				e.getKey(),
+				e.getValue().createdAt(),
+				e.getValue().serializedResponse()))
+			.toList();
+		
+		LOG.debug("Saving {}x cached responses", entries.size());
+		return Persister.trySave(LOG, this.cacheFile, () -> new PersistentState(entries));
+	}
+	
+	// endregion
+	
+	static final class CachedResponse
 	{
-		public Optional<T> response()
+		private final Instant createdAt;
+		private final String serializedResponse;
+		private volatile Object response;
+		
+		CachedResponse(final Instant createdAt, final String serializedResponse, final Object response)
 		{
-			return Optional.ofNullable(this.reponseSupplier().get());
+			this.createdAt = createdAt;
+			this.serializedResponse = serializedResponse;
+			this.response = response;
 		}
+		
+		Instant createdAt()
+		{
+			return this.createdAt;
+		}
+		
+		String serializedResponse()
+		{
+			return this.serializedResponse;
+		}
+		
+		/**
+		 * @return the (lazily deserialized) response or <code>null</code> if it can't be deserialized
+		 */
+		<T> T response(final Class<T> responseClass)
+		{
+			final Object current = this.response;
+			if(responseClass.isInstance(current))
+			{
+				return responseClass.cast(current);
+			}
+			
+			final long startMs = System.currentTimeMillis();
+			try
+			{
+				final T deserialized = JSONSerializer.FAST_OBJECT_MAPPER.readValue(
+					this.serializedResponse,
+					responseClass);
+				this.response = deserialized;
+				return deserialized;
+			}
+			catch(final Exception ex)
+			{
+				LOG.warn("Failed to deserialize cached response", ex);
+				return null;
+			}
+			finally
+			{
+				LOG.debug("Took {}ms to deserialize response", System.currentTimeMillis() - startMs);
+			}
+		}
+	}
+	
+	
+	record PersistentState(
+		List<PersistentContainer> entries)
+	{
 	}
 	
 	
@@ -0,0 +1,271 @@
+package net.litetex.authback.common.circuitbreaker;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Circuit breaker for calls to a single API host.
+ * <ul>
+ *     <li>{@link State#CLOSED}: All calls are executed.
+ *     The outcomes of the most recent calls are recorded - calls that are slower than the configured threshold
+ *     are considered failed. When the failure rate exceeds the threshold the breaker opens.</li>
+ *     <li>{@link State#OPEN}: No calls are executed, callers should directly use their caches.</li>
+ *     <li>{@link State#HALF_OPEN}: After the open duration a single probe call is executed.
+ *     If it succeeds the breaker is closed otherwise it's opened again.</li>
+ * </ul>
+ */
+public class CircuitBreaker
+{
+	private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+	
+	private final String name;
+	private final Settings settings;
+	
+	// Ring buffer of the most recent outcomes; true = failed
+	private final boolean[] outcomes;
+	private int nextOutcomeIndex;
+	private int outcomeCount;
+	private int failureCount;
+	
+	private State state = State.CLOSED;
+	private Instant stateChangedAt = Instant.now();
+	private boolean probeInFlight;
+	private long rejectedCalls;
+	
+	public CircuitBreaker(final String name, final Settings settings)
+	{
+		this.name = name;
+		this.settings = settings;
+		this.outcomes = new boolean[Math.max(settings.windowSize(), 1)];
+	}
+	
+	public String name()
+	{
+		return this.name;
+	}
+	
+	/**
+	 * @return <code>true</code> if the call should be executed
+	 * (the outcome must then be reported using e.g. {@link #onCallFinished(boolean, Duration)})
+	 */
+	public synchronized boolean tryAcquirePermission()
+	{
+		if(!this.settings.enabled())
+		{
+			return true;
+		}
+		
+		if(this.state == State.OPEN
+			&& !Instant.now().isBefore(this.stateChangedAt.plus(this.settings.openDuration())))
+		{
+			this.transitionTo(State.HALF_OPEN);
+		}
+		
+		final boolean permitted = switch(this.state)
+		{
+			case CLOSED -> true;
+			case OPEN -> false;
+			case HALF_OPEN ->
+			{
+				if(this.probeInFlight)
+				{
+					yield false;
+				}
+				this.probeInFlight = true;
+				yield true;
+			}
+		};
+		if(!permitted)
+		{
+			this.rejectedCalls++;
+		}
+		return permitted;
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public synchronized void onCallFinished(final boolean failed, final Duration duration)
+	{
+		if(!this.settings.enabled())
+		{
+			return;
+		}
+		
+		final boolean slow = duration.compareTo(this.settings.slowCallThreshold()) >= 0;
+		final boolean considerFailed = failed || slow;
+		if(slow && !failed)
+		{
+			LOG.debug("[{}] Slow call took {}ms", this.name, duration.toMillis());
+		}
+		
+		switch(this.state)
+		{
+			case HALF_OPEN ->
+			{
+				this.probeInFlight = false;
+				this.transitionTo(considerFailed ? State.OPEN : State.CLOSED);
+			}
+			case CLOSED ->
+			{
+				this.recordOutcome(considerFailed);
+				if(this.outcomeCount >= this.settings.minCalls()
+					&& this.failureCount * 100L >= (long)this.settings.failureRatePercent() * this.outcomeCount)
+				{
+					this.transitionTo(State.OPEN);
+				}
+			}
+			// Call was started before the breaker opened - ignore
+			case OPEN ->
+			{
+			}
+		}
+	}
+	
+	/**
+	 * Executes the call (if permitted) and records its outcome.
+	 * Exceptions thrown by the call are considered failures and are rethrown.
+	 *
+	 * @param whenRejected supplies the result if the breaker doesn't permit the call
+	 */
+	public <T> T execute(final Supplier<T> call, final Supplier<T> whenRejected)
+	{
+		if(!this.tryAcquirePermission())
+		{
+			LOG.debug("[{}] Circuit is {} - not executing call", this.name, this.state());
+			return whenRejected.get();
+		}
+		
+		return this.executePermitted(call);
+	}
+	
+	/**
+	 * Executes a call for which the permission was already acquired (see {@link #tryAcquirePermission()})
+	 * and records its outcome.
+	 */
+	public <T> T executePermitted(final Supplier<T> call)
+	{
+		final long startNanos = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			final T result = call.get();
+			failed = false;
+			return result;
+		}
+		finally
+		{
+			this.onCallFinished(failed, Duration.ofNanos(System.nanoTime() - startNanos));
+		}
+	}
+	
+	private void recordOutcome(final boolean failed)
+	{
+		if(this.outcomeCount == this.outcomes.length)
+		{
+			// Overwrite the oldest outcome
+			if(this.outcomes[this.nextOutcomeIndex])
+			{
+				this.failureCount--;
+			}
+		}
+		else
+		{
+			this.outcomeCount++;
+		}
+		
+		this.outcomes[this.nextOutcomeIndex] = failed;
+		if(failed)
+		{
+			this.failureCount++;
+		}
+		this.nextOutcomeIndex = (this.nextOutcomeIndex + 1) % this.outcomes.length;
+	}
+	
+	private void resetOutcomes()
+	{
+		this.nextOutcomeIndex = 0;
+		this.outcomeCount = 0;
+		this.failureCount = 0;
+	}
+	
+	private void transitionTo(final State newState)
+	{
+		if(this.state == newState)
+		{
+			return;
+		}
+		
+		final State oldState = this.state;
+		this.state = newState;
+		this.stateChangedAt = Instant.now();
+		
+		switch(newState)
+		{
+			case OPEN -> LOG.warn(
+				"[{}] Circuit opened (was {}) - failure rate {}/{} - using caches for the next {}s",
+				this.name,
+				oldState,
+				this.failureCount,
+				this.outcomeCount,
+				this.settings.openDuration().toSeconds());
+			case HALF_OPEN -> LOG.info("[{}] Circuit half-open - sending probe request", this.name);
+			case CLOSED ->
+			{
+				LOG.info("[{}] Circuit closed - API is available again", this.name);
+				this.rejectedCalls = 0;
+			}
+		}
+		this.resetOutcomes();
+	}
+	
+	public synchronized State state()
+	{
+		return this.state;
+	}
+	
+	public synchronized Status status()
+	{
+		return new Status(
+			this.name,
+			this.state,
+			this.stateChangedAt,
+			this.failureCount,
+			this.outcomeCount,
+			this.rejectedCalls);
+	}
+	
+	public enum State
+	{
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+	
+	
+	public record Status(
+		String name,
+		State state,
+		Instant since,
+		int recentFailures,
+		int recentCalls,
+		long rejectedCalls
+	)
+	{
+	}
+	
+	
+	public record Settings(
+		boolean enabled,
+		int windowSize,
+		int minCalls,
+		int failureRatePercent,
+		Duration slowCallThreshold,
+		Duration openDuration
+	)
+	{
+	}
+}
@@ -0,0 +1,67 @@
+package net.litetex.authback.common.circuitbreaker;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.litetex.authback.shared.config.Configuration;
+
+
+/**
+ * Manages one {@link CircuitBreaker} per API host.
+ */
+public class CircuitBreakers
+{
+	// Host that is used by the GameProfileRepository for looking up profiles by name
+	public static final String PROFILE_LOOKUP_HOST = "api.minecraftservices.com";
+	
+	private final CircuitBreaker.Settings settings;
+	private final Map<String, CircuitBreaker> hostCircuitBreakers = new ConcurrentHashMap<>();
+	
+	public CircuitBreakers(final CircuitBreaker.Settings settings)
+	{
+		this.settings = settings;
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public static CircuitBreakers create(final Configuration config)
+	{
+		final String prefix = "api-circuit-breaker.";
+		return new CircuitBreakers(new CircuitBreaker.Settings(
+			config.getBoolean(prefix + "enabled", true),
+			config.getInteger(prefix + "window-size", 20),
+			config.getInteger(prefix + "min-calls", 5),
+			config.getInteger(prefix + "failure-rate-percent", 50),
+			Duration.ofMillis(config.getInteger(prefix + "slow-call-ms", 3000)),
+			Duration.ofMillis(config.getInteger(prefix + "open-duration-ms", 30000))));
+	}
+	
+	public CircuitBreaker forHost(final String host)
+	{
+		return this.hostCircuitBreakers.computeIfAbsent(
+			host.toLowerCase(Locale.ROOT),
+			h -> new CircuitBreaker(h, this.settings));
+	}
+	
+	public CircuitBreaker forUrl(final URL url)
+	{
+		return this.forHost(url.getHost());
+	}
+	
+	public CircuitBreaker forUrl(final String url)
+	{
+		return this.forHost(URI.create(url).getHost());
+	}
+	
+	public List<CircuitBreaker.Status> statuses()
+	{
+		return this.hostCircuitBreakers.values()
+			.stream()
+			.map(CircuitBreaker::status)
+			.toList();
+	}
+}
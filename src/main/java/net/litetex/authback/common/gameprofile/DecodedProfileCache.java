@@ -0,0 +1,54 @@
+package net.litetex.authback.common.gameprofile;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.mojang.authlib.GameProfile;
+
+
+/**
+ * Keeps a few recently used profiles decoded.
+ * <p>
+ * Lock-free: Every container is mapped to a single slot (by its identity) and a new entry simply replaces the
+ * entry in its slot. The eviction is therefore only approximately "least recently used".
+ * </p>
+ * <p>
+ * Key = container (identity) -&gt; a replaced profile is never returned.
+ * </p>
+ */
+class DecodedProfileCache
+{
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	
+	DecodedProfileCache(final int size)
+	{
+		final int slotCount = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+		this.slots = new AtomicReferenceArray<>(slotCount);
+		this.mask = slotCount - 1;
+	}
+	
+	GameProfile get(final ProfileContainer container)
+	{
+		final Entry entry = this.slots.getAcquire(this.index(container));
+		return entry != null && entry.container() == container ? entry.profile() : null;
+	}
+	
+	void put(final ProfileContainer container, final GameProfile profile)
+	{
+		this.slots.setRelease(this.index(container), new Entry(container, profile));
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private int index(final ProfileContainer container)
+	{
+		final int h = System.identityHashCode(container);
+		return (h ^ (h >>> 16)) & this.mask;
+	}
+	
+	record Entry(
+		ProfileContainer container,
+		GameProfile profile
+	)
+	{
+	}
+}
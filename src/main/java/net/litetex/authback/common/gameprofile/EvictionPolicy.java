@@ -0,0 +1,42 @@
+package net.litetex.authback.common.gameprofile;
+
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Decides which game profiles are removed when the cache exceeds its maximum size.
+ */
+public enum EvictionPolicy
+{
+	/**
+	 * The profiles that were added/fetched the longest time ago are removed
+	 */
+	FIFO,
+	/**
+	 * Frequency-aware eviction: The most recently added profiles are always kept (window).
+	 * From the remaining oldest profiles the ones with the lowest (estimated) access frequency are removed.
+	 * This way players that join regularly are kept even when a lot of one-time visitors join.
+	 * <p>
+	 * Note: There is no admission filter (unlike TinyLFU) - new profiles are always added.
+	 * </p>
+	 */
+	FREQUENCY;
+	
+	private static final Logger LOG = LoggerFactory.getLogger(EvictionPolicy.class);
+	
+	public static EvictionPolicy parse(final String value)
+	{
+		try
+		{
+			return EvictionPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		}
+		catch(final IllegalArgumentException iae)
+		{
+			LOG.warn("Unknown eviction policy '{}' - using {}", value, FIFO);
+			return FIFO;
+		}
+	}
+}
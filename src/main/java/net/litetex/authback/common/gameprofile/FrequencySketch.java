@@ -0,0 +1,102 @@
+package net.litetex.authback.common.gameprofile;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Count-Min sketch that estimates how often a profile was accessed (used for frequency-aware eviction).
+ * <p>
+ * Counters are saturated at 15 (4 bit). To prefer recent popularity all counters are halved
+ * once the amount of recorded accesses reaches a multiple of the maximum cache size.
+ * </p>
+ * <p>
+ * Lock-free: The counters are updated atomically so that recording an access never blocks a lookup.
+ * Accesses that are recorded while the counters are halved might be lost, which is acceptable for an estimate.
+ * </p>
+ */
+class FrequencySketch
+{
+	private static final int DEPTH = 4;
+	private static final int MIN_WIDTH = 16;
+	private static final int MAX_COUNT = 15;
+	private static final int RESET_MULTIPLIER = 10;
+	private static final long[] SEEDS = {
+		0x97cb3127L,
+		0xc3a5c85c97cb3127L,
+		0xb492b66fbe98f273L,
+		0x9ae16a3b2f90404fL
+	};
+	
+	private final AtomicIntegerArray[] rows;
+	private final int mask;
+	private final int resetAfter;
+	private final AtomicInteger recorded = new AtomicInteger();
+	
+	FrequencySketch(final int maxSize)
+	{
+		final int width = Integer.highestOneBit(Math.max(maxSize, MIN_WIDTH) - 1) << 1;
+		this.rows = new AtomicIntegerArray[DEPTH];
+		for(int i = 0; i < DEPTH; i++)
+		{
+			this.rows[i] = new AtomicIntegerArray(width);
+		}
+		this.mask = width - 1;
+		this.resetAfter = Math.max(maxSize, 1) * RESET_MULTIPLIER;
+	}
+	
+	void increment(final UUID id)
+	{
+		final long hash = hash(id);
+		for(int i = 0; i < DEPTH; i++)
+		{
+			// Saturating increment
+			this.rows[i].getAndUpdate(this.index(hash, i), count -> count < MAX_COUNT ? count + 1 : count);
+		}
+		
+		// Only the thread that reaches the limit halves the counters
+		if(this.recorded.incrementAndGet() == this.resetAfter)
+		{
+			this.halve();
+		}
+	}
+	
+	int frequency(final UUID id)
+	{
+		final long hash = hash(id);
+		int min = MAX_COUNT;
+		for(int i = 0; i < DEPTH; i++)
+		{
+			min = Math.min(min, this.rows[i].get(this.index(hash, i)));
+		}
+		return min;
+	}
+	
+	private void halve()
+	{
+		for(final AtomicIntegerArray row : this.rows)
+		{
+			for(int i = 0; i < row.length(); i++)
+			{
+				row.getAndUpdate(i, count -> count >> 1);
+			}
+		}
+		this.recorded.addAndGet(-this.resetAfter / 2);
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private int index(final long hash, final int row)
+	{
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h ^= h >>> 32;
+		return (int)h & this.mask;
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private static long hash(final UUID id)
+	{
+		final long h = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+		return h ^ (h >>> 33);
+	}
+}
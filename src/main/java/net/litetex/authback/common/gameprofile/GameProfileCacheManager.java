@@ -2,36 +2,54 @@ package net.litetex.authback.common.gameprofile;
 
 import static net.litetex.authback.shared.collections.AdvancedCollectors.toLinkedHashMap;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.SequencedMap;
 import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Supplier;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.mojang.authlib.GameProfile;
 
-import net.litetex.authback.shared.external.com.google.common.base.Suppliers;
+import net.litetex.authback.shared.io.PersistFormat;
+import net.litetex.authback.shared.io.PersistScheduler;
 import net.litetex.authback.shared.io.Persister;
 import net.litetex.authback.shared.json.JSONSerializer;
+import net.litetex.authback.shared.maintenance.IncrementalCleanup;
+import net.litetex.authback.shared.maintenance.MaintenanceScheduler;
+import net.litetex.authback.shared.parse.FastParsers;
 import net.litetex.authback.shared.sync.SynchronizedContainer;
 
 
@@ -39,35 +57,84 @@ public class GameProfileCacheManager
 {
 	private static final Logger LOG = LoggerFactory.getLogger(GameProfileCacheManager.class);
 	
-	private static final Duration DELETE_AFTER_EXECUTION_INTERVAL = Duration.ofHours(12);
 	private static final float TARGET_PROFILE_COUNT_PERCENT = 0.9f;
+	// Frequency eviction: Percentage of the most recently added profiles that are never evicted
+	private static final float WINDOW_PROFILE_COUNT_PERCENT = 0.01f;
+	// Frequency eviction: Amount of the oldest profiles that are compared per profile to evict
+	private static final int EVICTION_CANDIDATES_PER_PROFILE = 4;
+	
+	private static final int BINARY_VERSION = 1;
+	// Only a sanity check to detect corrupted files
+	private static final int MAX_BINARY_PROFILE_LENGTH = 16 * 1024 * 1024;
+	
+	private static final int INDEX_VERSION = 2;
 	
 	private final Path file;
+	// Sidecar index for lazy startups; null = disabled
+	@Nullable
+	private final Path indexFile;
+	// The file from which not yet accessed profiles are read; null = all profiles were read
+	@Nullable
+	private volatile PrimaryFile primaryFile;
+	private final PersistFormat persistFormat;
+	private final PersistScheduler.Registration persistRegistration;
+	
+	private final MaintenanceScheduler.Task maintenanceTask;
+	private final int cleanupBatchSize;
 	
 	private final Duration deleteAfter;
-	private Instant nextDeletedAfterExecuteTime = Instant.MIN;
 	
 	private final int maxTargetedProfileCount;
 	private final int targetedProfileCount;
+	// Long.MAX_VALUE = unlimited
+	private final long maxCacheBytes;
+	private final long targetedCacheBytes;
+	
+	// Only present when the frequency eviction policy is used
+	@Nullable
+	private final FrequencySketch frequencySketch;
+	private final int windowProfileCount;
 	
 	// Key = Owner
 	private final Map<Object, Consumer<GameProfile>> onAddedProfileAsyncHandlers =
 		Collections.synchronizedMap(new WeakHashMap<>());
 	
-	private Map<UUID, String> uuidUsernames = new HashMap<>(); // Reverse map for tracking when deleting
-	private Map<String, UUID> usernameUuids = new HashMap<>();
+	// Index used for lookups: Reads are wait-free
+	// Both maps are only modified while holding the lock of uuidProfileContainersSC
+	// The name index points to the same (immutable) entry, so a lookup by name always returns a consistent profile
+	private final Map<UUID, IndexEntry> uuidIndex = new ConcurrentHashMap<>();
+	private final Map<String, IndexEntry> usernameIndex = new ConcurrentHashMap<>();
+	// Defines the order (oldest first) for cleanups/eviction and persistence
 	// Using an ordered map here that always contains the latest value at the end
 	// This way cleanups can be A LOT (>20x) faster
 	// For some reason there is no Collections.synchronizedSequenceMap, so this needs to be done manually
 	private final SynchronizedContainer<SequencedMap<UUID, ProfileContainer>> uuidProfileContainersSC =
 		new SynchronizedContainer<>(new LinkedHashMap<>());
+	// Sum of the encoded sizes of the profiles; guarded by the lock of uuidProfileContainersSC
+	private long cachedBytes;
+	
+	// Only a few profiles are kept decoded; lock-free so that lookups never wait
+	@Nullable
+	private final DecodedProfileCache decodedProfiles;
 	
 	public GameProfileCacheManager(
 		final Path file,
+		final PersistFormat persistFormat,
+		final PersistScheduler persistScheduler,
+		final MaintenanceScheduler maintenanceScheduler,
 		final Duration deleteAfter,
-		final int maxTargetedProfileCount)
+		final int maxTargetedProfileCount,
+		final EvictionPolicy evictionPolicy,
+		final long maxCacheBytes,
+		final int decodedCacheSize,
+		final boolean lazyStartup)
 	{
 		this.file = file;
+		this.indexFile = lazyStartup ? file.resolveSibling(file.getFileName() + ".idx") : null;
+		this.persistFormat = persistFormat;
+		this.persistRegistration = persistScheduler.register(file.getFileName().toString(), this::saveToFile);
+		this.maintenanceTask = maintenanceScheduler.register(file.getFileName().toString(), this::cleanUp);
+		this.cleanupBatchSize = maintenanceScheduler.cleanupBatchSize();
 		this.deleteAfter = deleteAfter;
 		if(maxTargetedProfileCount <= 0)
 		{
@@ -75,6 +142,17 @@ public class GameProfileCacheManager
 		}
 		this.maxTargetedProfileCount = maxTargetedProfileCount;
 		this.targetedProfileCount = Math.max(Math.round(maxTargetedProfileCount * TARGET_PROFILE_COUNT_PERCENT), 1);
+		this.frequencySketch = evictionPolicy == EvictionPolicy.FREQUENCY
+			? new FrequencySketch(maxTargetedProfileCount)
+			: null;
+		this.windowProfileCount = Math.max(Math.round(maxTargetedProfileCount * WINDOW_PROFILE_COUNT_PERCENT), 1);
+		this.maxCacheBytes = maxCacheBytes > 0 ? maxCacheBytes : Long.MAX_VALUE;
+		this.targetedCacheBytes = maxCacheBytes > 0
+			? (long)(maxCacheBytes * TARGET_PROFILE_COUNT_PERCENT)
+			: Long.MAX_VALUE;
+		this.decodedProfiles = decodedCacheSize > 0
+			? new DecodedProfileCache(decodedCacheSize)
+			: null;
 		this.readFile();
 	}
 	
@@ -82,19 +160,22 @@ public class GameProfileCacheManager
 	{
 		LOG.debug("Add {}/{}", profile.name(), profile.id());
 		
-		final ProfileContainer profileContainer = new ProfileContainer(
-			JSONSerializer.FAST_OBJECT_MAPPER.writeValueAsString(profile),
-			() -> profile,
-			Instant.now());
+		final ProfileContainer profileContainer = ProfileContainer.pending(profile, Instant.now());
 		
-		this.uuidProfileContainersSC.execWithLock(m -> m.putLast(profile.id(), profileContainer));
-		final String previousName = this.uuidUsernames.put(profile.id(), profile.name());
-		// Handle account name change
-		if(previousName != null && !profile.name().equals(previousName))
+		this.recordAccess(profile.id());
+		final int size = this.uuidProfileContainersSC.supplyWithLock(m -> {
+			this.unaccountWithoutLock(m.get(profile.id()));
+			m.putLast(profile.id(), profileContainer);
+			this.putIndexWithoutLock(new IndexEntry(profile.id(), profile.name(), profileContainer));
+			return m.size();
+		});
+		if(size > this.maxTargetedProfileCount)
 		{
-			this.usernameUuids.remove(previousName);
+			this.maintenanceTask.requestRun();
 		}
-		this.usernameUuids.put(profile.name(), profile.id());
+		
+		// Encode outside the login path
+		CompletableFuture.runAsync(() -> this.encode(profile.id(), profileContainer));
 		
 		this.saveAsync();
 		
@@ -122,114 +203,268 @@ public class GameProfileCacheManager
 	{
 		LOG.debug("FindByName {}", username);
 		
-		final UUID uuid = this.usernameUuids.get(username);
-		if(uuid == null)
-		{
-			return null;
-		}
-		
-		return this.findByUUID(uuid);
+		final CachedGameProfile cached = this.findCached(this.usernameIndex.get(username));
+		return cached != null ? cached.profile() : null;
 	}
 	
 	public GameProfile findByUUID(final UUID id)
+	{
+		final CachedGameProfile cached = this.findCachedByUUID(id);
+		return cached != null ? cached.profile() : null;
+	}
+	
+	/**
+	 * @return the cached profile together with the time when it was added/fetched
+	 */
+	public CachedGameProfile findCachedByUUID(final UUID id)
 	{
 		LOG.debug("FindByUUID {}", id);
-		final long startMs = System.currentTimeMillis();
-		final ProfileContainer container = this.uuidProfileContainersSC.supplyWithLock(m -> m.get(id));
-		if(container == null)
+		return this.findCached(this.uuidIndex.get(id));
+	}
+	
+	private CachedGameProfile findCached(@Nullable final IndexEntry entry)
+	{
+		if(entry == null)
 		{
 			return null;
 		}
 		
-		this.cleanUpIfRequired();
-		
+		final long startMs = System.currentTimeMillis();
+		this.recordAccess(entry.id());
 		try
 		{
-			final GameProfile gameProfile = container.gameProfileSupplier().get();
-			LOG.debug("Took {}ms for findByUUID[id={}] to return result", System.currentTimeMillis() - startMs, id);
-			return gameProfile;
+			final GameProfile gameProfile = this.decode(entry.container());
+			LOG.debug(
+				"Took {}ms for findCached[id={}] to return result",
+				System.currentTimeMillis() - startMs,
+				entry.id());
+			return new CachedGameProfile(gameProfile, entry.container().createdAt());
 		}
 		catch(final Exception ex)
 		{
 			LOG.warn("Failed to deserialize game profile", ex);
-			// Remove corrupted container
-			this.uuidProfileContainersSC.execWithLock(ignored -> this.removeWithoutLock(id));
+			// Remove corrupted container - but only if it wasn't replaced in the meantime
+			this.uuidProfileContainersSC.execWithLock(m -> {
+				if(m.get(entry.id()) == entry.container())
+				{
+					this.removeWithoutLock(entry.id());
+				}
+			});
 			return null;
 		}
 	}
 	
+	private GameProfile decode(final ProfileContainer container)
+	{
+		final GameProfile pendingProfile = container.pendingProfile();
+		if(pendingProfile != null)
+		{
+			return pendingProfile;
+		}
+		if(this.decodedProfiles == null)
+		{
+			return container.decode();
+		}
+		
+		final GameProfile cached = this.decodedProfiles.get(container);
+		if(cached != null)
+		{
+			return cached;
+		}
+		
+		final GameProfile decoded = container.decode();
+		this.decodedProfiles.put(container, decoded);
+		return decoded;
+	}
+	
+	private void encode(final UUID id, final ProfileContainer container)
+	{
+		try
+		{
+			container.encoded();
+		}
+		catch(final Exception ex)
+		{
+			LOG.warn("Failed to encode game profile {}", id, ex);
+			return;
+		}
+		
+		final long bytes = this.uuidProfileContainersSC.supplyWithLock(m -> {
+			// Only account containers that are (still) present
+			if(m.get(id) == container)
+			{
+				this.accountWithoutLock(container);
+			}
+			return this.cachedBytes;
+		});
+		if(bytes > this.maxCacheBytes)
+		{
+			this.maintenanceTask.requestRun();
+		}
+	}
+	
+	private void accountWithoutLock(final ProfileContainer container)
+	{
+		if(!container.accounted && container.isEncoded())
+		{
+			container.accounted = true;
+			this.cachedBytes += container.encodedLength();
+		}
+	}
+	
+	private void unaccountWithoutLock(@Nullable final ProfileContainer container)
+	{
+		if(container != null && container.accounted)
+		{
+			container.accounted = false;
+			this.cachedBytes -= container.encodedLength();
+		}
+	}
+	
+	/**
+	 * @return the amount of cached profiles
+	 */
+	public int size()
+	{
+		return this.uuidIndex.size();
+	}
+	
 	public Set<UUID> uuids()
 	{
-		return new HashSet<>(this.uuidUsernames.keySet());
+		return new HashSet<>(this.uuidIndex.keySet());
 	}
 	
 	public Set<String> names()
 	{
-		return new HashSet<>(this.usernameUuids.keySet());
+		return new HashSet<>(this.usernameIndex.keySet());
 	}
 	
-	private void cleanUpIfRequired()
+	/**
+	 * Executed by the {@link MaintenanceScheduler}.
+	 *
+	 * @return the amount of removed profiles
+	 */
+	private int cleanUp()
 	{
-		final Instant now = Instant.now();
-		if(!(this.nextDeletedAfterExecuteTime.isBefore(now)
-			|| this.uuidProfileContainersSC.value().size() > this.maxTargetedProfileCount))
+		LOG.debug("Executing cleanup");
+		final Instant deleteBefore = Instant.now().minus(this.deleteAfter);
+		
+		final long startMs = System.currentTimeMillis();
+		// The oldest entry is at the start - expired entries and entries above the targeted size/bytes are removed
+		// When frequency-aware eviction is used only the expired entries are removed here
+		final boolean trimByAge = this.frequencySketch == null;
+		int removed = IncrementalCleanup.removeOldest(
+			this.uuidProfileContainersSC,
+			SequencedMap::firstEntry,
+			(container, size) -> container.createdAt().isBefore(deleteBefore)
+				|| trimByAge && (size > this.targetedProfileCount || this.cachedBytes > this.targetedCacheBytes),
+			this::removeWithoutLock,
+			this.cleanupBatchSize);
+		if(!trimByAge)
 		{
-			return;
+			removed += this.trimByFrequency();
 		}
+		LOG.debug("Cleanup removed {}x profiles, took {}ms", removed, System.currentTimeMillis() - startMs);
 		
-		LOG.debug("Executing cleanup");
-		this.nextDeletedAfterExecuteTime = now.plus(DELETE_AFTER_EXECUTION_INTERVAL);
+		if(removed > 0)
+		{
+			this.saveAsync();
+		}
+		return removed;
+	}
+	
+	private void recordAccess(final UUID id)
+	{
+		if(this.frequencySketch != null)
+		{
+			this.frequencySketch.increment(id);
+		}
+	}
+	
+	/**
+	 * Trims the cache to the targeted size by evicting the least frequently accessed profiles
+	 * from the oldest profiles (outside the window of the most recently added ones).
+	 *
+	 * @return the amount of evicted profiles
+	 */
+	private int trimByFrequency()
+	{
+		final int toRemove = this.uuidProfileContainersSC.supplyWithLock(m -> {
+			final long excessBytes = this.cachedBytes - this.targetedCacheBytes;
+			// Estimate the amount of profiles to remove using the average size
+			final long toRemoveForBytes = excessBytes > 0
+				? Math.ceilDiv(excessBytes, Math.max(this.cachedBytes / Math.max(m.size(), 1), 1))
+				: 0;
+			return (int)Math.max(m.size() - this.targetedProfileCount, Math.min(toRemoveForBytes, m.size()));
+		});
+		if(toRemove <= 0 || this.frequencySketch == null)
+		{
+			return 0;
+		}
+		
+		// Only a bounded amount of the oldest entries is copied, so that lookups are not blocked for long
+		final List<Map.Entry<UUID, ProfileContainer>> candidates = this.uuidProfileContainersSC.supplyWithLock(m ->
+			m.entrySet()
+				.stream()
+				.limit(Math.min(
+					Math.max(m.size() - this.windowProfileCount, 0),
+					(long)toRemove * EVICTION_CANDIDATES_PER_PROFILE))
+				.map(e -> Map.entry(e.getKey(), e.getValue()))
+				.toList());
 		
-		final Instant deleteBefore = now.minus(this.deleteAfter);
+		// Lowest frequency first; the sort is stable -> for equal frequencies the oldest profile is evicted first
+		final List<Map.Entry<UUID, ProfileContainer>> victims = candidates.stream()
+			.sorted(Comparator.comparingInt(e -> this.frequencySketch.frequency(e.getKey())))
+			.limit(toRemove)
+			.toList();
 		
-		final long startMs = System.currentTimeMillis();
-		this.uuidProfileContainersSC.execWithLock(
-			uuidProfileContainers -> {
-				final List<Map.Entry<UUID, ProfileContainer>> entriesToDelete = new ArrayList<>();
-				for(final Map.Entry<UUID, ProfileContainer> entry : uuidProfileContainers.entrySet())
+		return this.uuidProfileContainersSC.supplyWithLock(m -> {
+			int evicted = 0;
+			for(final Map.Entry<UUID, ProfileContainer> victim : victims)
+			{
+				// Skip profiles that were updated in the meantime
+				if(m.get(victim.getKey()) == victim.getValue())
 				{
-					// As the map is ordered: Abort everything else after the first entry that is valid
-					if(!entry.getValue().createdAt().isBefore(deleteBefore))
-					{
-						break;
-					}
-					entriesToDelete.add(entry);
+					this.removeWithoutLock(victim.getKey());
+					evicted++;
 				}
-				
-				this.removeAllWithoutLock(entriesToDelete.stream());
-			});
-		
-		final long start2Ms = System.currentTimeMillis();
-		LOG.debug("Cleanup with isBefore took {}ms", start2Ms - startMs);
-		
-		if(this.uuidProfileContainersSC.value().size() > this.targetedProfileCount)
-		{
-			this.uuidProfileContainersSC.execWithLock(uuidProfileContainers ->
-				this.removeAllWithoutLock(uuidProfileContainers.entrySet()
-					.stream()
-					.limit(Math.max(uuidProfileContainers.size() - this.targetedProfileCount, 0))));
-			
-			LOG.debug("Cleanup trim to targetedCacheSize took {}ms", System.currentTimeMillis() - start2Ms);
-		}
+			}
+			return evicted;
+		});
 	}
 	
-	private void removeAllWithoutLock(final Stream<Map.Entry<UUID, ProfileContainer>> stream)
+	private void putIndexWithoutLock(final IndexEntry entry)
 	{
-		stream.map(Map.Entry::getKey)
-			.toList() // Collect to prevent modification
-			.forEach(this::removeWithoutLock);
+		final IndexEntry previous = this.uuidIndex.put(entry.id(), entry);
+		// Handle account name change
+		if(previous != null && previous.username() != null && !previous.username().equals(entry.username()))
+		{
+			this.usernameIndex.remove(previous.username(), previous);
+		}
+		if(entry.username() != null)
+		{
+			this.usernameIndex.put(entry.username(), entry);
+		}
 	}
 	
 	private void removeWithoutLock(final UUID uuid)
 	{
-		this.uuidProfileContainersSC.value().remove(uuid);
-		final String usernameToRemove = this.uuidUsernames.remove(uuid);
-		if(usernameToRemove != null)
+		this.unaccountWithoutLock(this.uuidProfileContainersSC.value().remove(uuid));
+		final IndexEntry removed = this.uuidIndex.remove(uuid);
+		// The name might already be used by another account
+		if(removed != null && removed.username() != null)
 		{
-			this.usernameUuids.remove(usernameToRemove);
+			this.usernameIndex.remove(removed.username(), removed);
 		}
 	}
 	
+	@Nullable
+	private String usernameOf(final UUID uuid)
+	{
+		final IndexEntry entry = this.uuidIndex.get(uuid);
+		return entry != null ? entry.username() : null;
+	}
+	
 	private void readFile()
 	{
 		final long startMs = System.currentTimeMillis();
@@ -237,33 +472,61 @@ public class GameProfileCacheManager
 		{
 			final Instant deleteBefore = Instant.now().minus(this.deleteAfter);
 			
-			final PersistentState persistentState = Persister.tryRead(LOG, this.file, PersistentState.class)
-				.orElseGet(PersistentState::new);
-			
-			final Map<String, UUID> stringToUUIDCache = new HashMap<>(persistentState.ensureIdProfiles().size());
-			final Function<String, UUID> stringToUUIDFunc =
-				s -> stringToUUIDCache.computeIfAbsent(s, UUID::fromString);
+			final LoadedState loadedState = this.tryReadIndex(deleteBefore)
+				.orElseGet(() -> this.persistFormat.formatToRead(this.file) == PersistFormat.BINARY
+					? Persister.tryReadBinary(
+							LOG,
+							PersistFormat.BINARY.resolve(this.file),
+							(in, version) -> readBinary(in, version, deleteBefore))
+						.orElseGet(LoadedState::new)
+					: this.readJson(deleteBefore));
 			
-			final LinkedHashMap<UUID, ProfileContainer> deserializedUuidProfileContainers =
-				persistentState.ensureIdProfiles()
-					.entrySet()
-					.stream()
-					.filter(e -> e.getValue().createdAt().isAfter(deleteBefore))
-					.collect(toLinkedHashMap(
-						e -> stringToUUIDFunc.apply(e.getKey()),
-						e -> new ProfileContainer(
-							e.getValue().serializedGameProfile(),
-							Suppliers.memoize(() -> JSONSerializer.FAST_OBJECT_MAPPER.readValue(
-								e.getValue().serializedGameProfile(),
-								GameProfile.class)),
-							e.getValue().createdAt()
-						)));
 			this.uuidProfileContainersSC.execWithLock(map -> {
 				map.clear();
-				map.putAll(deserializedUuidProfileContainers);
+				this.uuidIndex.clear();
+				this.usernameIndex.clear();
+				this.cachedBytes = 0;
+				
+				map.putAll(loadedState.uuidProfileContainers());
+				map.forEach((uuid, container) -> {
+					this.putIndexWithoutLock(new IndexEntry(uuid, loadedState.uuidUsernames().get(uuid), container));
+					this.accountWithoutLock(container);
+				});
 			});
 			
-			this.uuidUsernames = Collections.synchronizedMap(persistentState.ensureUUIDUsernames()
+			LOG.debug(
+				"Took {}ms to read {}x profiles",
+				System.currentTimeMillis() - startMs,
+				this.uuidProfileContainersSC.value().size());
+		}
+		catch(final Exception ex)
+		{
+			LOG.warn("Failed to read file['{}']", this.file, ex);
+		}
+	}
+	
+	private LoadedState readJson(final Instant deleteBefore)
+	{
+		final PersistentState persistentState = Persister.tryRead(LOG, this.file, PersistentState.class)
+			.orElseGet(PersistentState::new);
+		
+		final int profileCount = persistentState.ensureIdProfiles().size();
+		final Map<String, UUID> stringToUUIDCache = HashMap.newHashMap(profileCount);
+		final Function<String, UUID> stringToUUIDFunc =
+			s -> stringToUUIDCache.computeIfAbsent(s, FastParsers::parseUUID);
+		
+		return new LoadedState(
+			persistentState.ensureIdProfiles()
+				.entrySet()
+				.stream()
+				.filter(e -> e.getValue().createdAt().isAfter(deleteBefore))
+				.collect(toLinkedHashMap(
+					e -> stringToUUIDFunc.apply(e.getKey()),
+					e -> ProfileContainer.encoded(
+						e.getValue().serializedGameProfile().getBytes(StandardCharsets.UTF_8),
+						e.getValue().createdAt()),
+					profileCount)),
+			persistentState.ensureUUIDUsernames()
 				.entrySet()
 				.stream()
 				.map(e -> {
@@ -278,54 +541,422 @@ public class GameProfileCacheManager
 					}
 				})
 				.filter(Objects::nonNull)
-				.filter(e -> this.uuidProfileContainersSC.supplyWithLock(
-					map -> map.containsKey(e.getKey())))
-				.collect(toLinkedHashMap(Map.Entry::getKey, Map.Entry::getValue)));
-
-			this.usernameUuids = Collections.synchronizedMap(this.uuidUsernames.entrySet()
-				.stream()
-				.collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey)));
+				.collect(toLinkedHashMap(
+					Map.Entry::getKey,
+					Map.Entry::getValue,
+					persistentState.ensureUUIDUsernames().size())));
+	}
+	
+	private void saveAsync()
+	{
+		this.persistRegistration.markDirty();
+	}
+	
+	private synchronized boolean saveToFile()
+	{
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainerSaveMap =
+			this.uuidProfileContainersSC.supplyWithLock(LinkedHashMap::new);
+		
+		LOG.debug("Saving {}x profiles", uuidProfileContainerSaveMap.size());
+		// Offsets of the profiles in the binary file; only required for the index
+		final int[] dataOffsets = this.indexFile != null && this.persistFormat == PersistFormat.BINARY
+			? new int[uuidProfileContainerSaveMap.size()]
+			: null;
+		final boolean saved = this.persistFormat == PersistFormat.BINARY
+			? Persister.trySaveBinary(
+				LOG,
+				PersistFormat.BINARY.resolve(this.file),
+				BINARY_VERSION,
+				out -> this.writeBinary(out, uuidProfileContainerSaveMap, dataOffsets))
+			: Persister.tryStream(
+				LOG,
+				this.file,
+				(writer, gson) -> this.writeJson(writer, gson, uuidProfileContainerSaveMap));
+		if(saved)
+		{
+			this.persistFormat.deleteOtherFormat(this.file);
+			if(dataOffsets != null)
+			{
+				this.saveIndex(uuidProfileContainerSaveMap, dataOffsets);
+			}
+		}
+		return saved;
+	}
+	
+	/**
+	 * Exports the human-readable JSON representation - independent of the used format.
+	 *
+	 * @return the path of the exported file or <code>null</code> if the export failed
+	 */
+	public Path exportJson()
+	{
+		final Path exportFile = PersistFormat.exportFile(this.file);
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainerSaveMap =
+			this.uuidProfileContainersSC.supplyWithLock(LinkedHashMap::new);
+		return Persister.tryStream(
+			LOG,
+			exportFile,
+			(writer, gson) -> this.writeJson(writer, gson, uuidProfileContainerSaveMap))
+			? exportFile
+			: null;
+	}
+	
+	/**
+	 * Writes the {@link PersistentState} entry by entry, so that it's never completely created in memory.
+	 */
+	private void writeJson(
+		final JsonWriter writer,
+		final Gson gson,
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainers) throws IOException
+	{
+		writer.beginObject();
+		
+		writer.name("uuidUsernames").beginObject();
+		for(final UUID uuid : uuidProfileContainers.keySet())
+		{
+			final String username = this.usernameOf(uuid);
+			if(username != null)
+			{
+				writer.name(uuid.toString()).value(username);
+			}
+		}
+		writer.endObject();
+		
+		writer.name("idProfiles").beginObject();
+		for(final Map.Entry<UUID, ProfileContainer> entry : uuidProfileContainers.entrySet())
+		{
+			writer.name(entry.getKey().toString());
+			gson.toJson(
+				entry.getValue().persist(),
+				PersistentState.PersistentProfileContainer.class,
+				writer);
+		}
+		writer.endObject();
+		
+		writer.endObject();
+	}
+	
+	// region Binary
+	
+	// Layout (version 1):
+	// int profileCount
+	// per profile: long uuidMostSigBits, long uuidLeastSigBits, long createdAt (epoch seconds),
+	// boolean hasUsername, [UTF username], int serializedGameProfileLength, byte[] serializedGameProfile (UTF-8)
+	
+	private void writeBinary(
+		final DataOutputStream out,
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainers,
+		@Nullable final int[] dataOffsets) throws IOException
+	{
+		out.writeInt(uuidProfileContainers.size());
+		int i = 0;
+		for(final Map.Entry<UUID, ProfileContainer> entry : uuidProfileContainers.entrySet())
+		{
+			final UUID uuid = entry.getKey();
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+			out.writeLong(entry.getValue().createdAt().getEpochSecond());
 			
-			LOG.debug(
-				"Took {}ms to read {}x profiles",
-				System.currentTimeMillis() - startMs,
-				this.uuidProfileContainersSC.value().size());
+			final String username = this.usernameOf(uuid);
+			out.writeBoolean(username != null);
+			if(username != null)
+			{
+				out.writeUTF(username);
+			}
+			
+			final byte[] serializedGameProfile = entry.getValue().encoded();
+			out.writeInt(serializedGameProfile.length);
+			if(dataOffsets != null)
+			{
+				// Persister writes the header into the same stream -> size = offset in the file
+				dataOffsets[i++] = out.size();
+			}
+			out.write(serializedGameProfile);
 		}
-		catch(final Exception ex)
+		
+		// All profiles were read from the old file (when encoding them) -> it's no longer needed and can be replaced
+		final PrimaryFile oldPrimaryFile = this.primaryFile;
+		if(oldPrimaryFile != null)
 		{
-			LOG.warn("Failed to read file['{}']", this.file, ex);
+			this.primaryFile = null;
+			oldPrimaryFile.invalidate();
 		}
 	}
 	
-	private void saveAsync()
+	private static LoadedState readBinary(
+		final DataInputStream in,
+		final int version,
+		final Instant deleteBefore) throws IOException
 	{
-		CompletableFuture.runAsync(this::saveToFile);
+		if(version != BINARY_VERSION)
+		{
+			throw new IOException("Unsupported version " + version);
+		}
+		
+		final int profileCount = in.readInt();
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainers =
+			LinkedHashMap.newLinkedHashMap(profileCount);
+		final Map<UUID, String> uuidUsernames = HashMap.newHashMap(profileCount);
+		for(int i = 0; i < profileCount; i++)
+		{
+			final UUID uuid = new UUID(in.readLong(), in.readLong());
+			final Instant createdAt = Instant.ofEpochSecond(in.readLong());
+			final String username = in.readBoolean() ? in.readUTF() : null;
+			
+			final int serializedGameProfileLength = in.readInt();
+			if(serializedGameProfileLength < 0 || serializedGameProfileLength > MAX_BINARY_PROFILE_LENGTH)
+			{
+				throw new IOException("Invalid serialized game profile length " + serializedGameProfileLength);
+			}
+			final byte[] serializedGameProfile = new byte[serializedGameProfileLength];
+			in.readFully(serializedGameProfile);
+			
+			if(!createdAt.isAfter(deleteBefore))
+			{
+				continue;
+			}
+			uuidProfileContainers.put(uuid, ProfileContainer.encoded(serializedGameProfile, createdAt));
+			if(username != null)
+			{
+				uuidUsernames.put(uuid, username);
+			}
+		}
+		return new LoadedState(uuidProfileContainers, uuidUsernames);
+	}
+	
+	// endregion
+	// region Index
+	
+	// The index is a sidecar of the primary (binary) file and is only used when it's up-to-date with the primary file.
+	// It only contains the ids, ages and names of the profiles and the offsets of the profiles in the primary file.
+	// This way the (much larger) profiles are not parsed/copied until they are accessed.
+	// Note that the in-memory indices are still built from all entries (O(n)) - only reading the profiles is avoided.
+	// Layout (version 2):
+	// long primaryFileSize, long primaryFileModifiedMs, int profileCount
+	// per profile (fixed length): long uuidMostSigBits, long uuidLeastSigBits, long createdAt (epoch seconds),
+	// int nameLength (-1 = no name), int dataOffset, int dataLength (offset in the primary file)
+	// followed by the names (UTF-8)
+	
+	private Optional<LoadedState> tryReadIndex(final Instant deleteBefore)
+	{
+		if(this.indexFile == null || this.persistFormat.formatToRead(this.file) != PersistFormat.BINARY)
+		{
+			return Optional.empty();
+		}
+		return Persister.tryReadBinary(
+			LOG,
+			this.indexFile,
+			(in, version) -> this.readIndex(in, version, deleteBefore));
 	}
 	
-	private synchronized void saveToFile()
+	private LoadedState readIndex(
+		final DataInputStream in,
+		final int version,
+		final Instant deleteBefore) throws IOException
 	{
-		this.cleanUpIfRequired();
+		if(version != INDEX_VERSION)
+		{
+			LOG.debug("Index has outdated version {} - ignoring it", version);
+			return null;
+		}
 		
-		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainerSaveMap =
-			this.uuidProfileContainersSC.supplyWithLock(LinkedHashMap::new);
+		final Path primaryFilePath = PersistFormat.BINARY.resolve(this.file);
+		final long primaryFileSize = Files.size(primaryFilePath);
+		if(in.readLong() != primaryFileSize
+			|| in.readLong() != Files.getLastModifiedTime(primaryFilePath).toMillis())
+		{
+			LOG.debug("Index is outdated - reading {}", primaryFilePath);
+			return null;
+		}
 		
-		LOG.debug("Saving {}x profiles", uuidProfileContainerSaveMap.size());
-		Persister.trySave(
+		final int profileCount = in.readInt();
+		final UUID[] uuids = new UUID[profileCount];
+		final long[] createdAts = new long[profileCount];
+		final int[] nameLengths = new int[profileCount];
+		final int[] dataOffsets = new int[profileCount];
+		final int[] dataLengths = new int[profileCount];
+		for(int i = 0; i < profileCount; i++)
+		{
+			uuids[i] = new UUID(in.readLong(), in.readLong());
+			createdAts[i] = in.readLong();
+			nameLengths[i] = in.readInt();
+			dataOffsets[i] = in.readInt();
+			dataLengths[i] = in.readInt();
+			if(dataLengths[i] < 0 || dataLengths[i] > MAX_BINARY_PROFILE_LENGTH
+				|| dataOffsets[i] < 0 || (long)dataOffsets[i] + dataLengths[i] > primaryFileSize)
+			{
+				throw new IOException("Invalid profile location in index");
+			}
+		}
+		
+		final PrimaryFile primaryFile = new PrimaryFile(primaryFilePath);
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainers =
+			LinkedHashMap.newLinkedHashMap(profileCount);
+		final Map<UUID, String> uuidUsernames = HashMap.newHashMap(profileCount);
+		for(int i = 0; i < profileCount; i++)
+		{
+			final String username = nameLengths[i] >= 0
+				? new String(in.readNBytes(nameLengths[i]), StandardCharsets.UTF_8)
+				: null;
+			
+			final Instant createdAt = Instant.ofEpochSecond(createdAts[i]);
+			if(!createdAt.isAfter(deleteBefore))
+			{
+				continue;
+			}
+			// Only the location in the primary file - the profile is read when it's accessed
+			uuidProfileContainers.put(
+				uuids[i],
+				ProfileContainer.stored(primaryFile, dataOffsets[i], dataLengths[i], createdAt));
+			if(username != null)
+			{
+				uuidUsernames.put(uuids[i], username);
+			}
+		}
+		this.primaryFile = primaryFile;
+		return new LoadedState(uuidProfileContainers, uuidUsernames);
+	}
+	
+	private void saveIndex(
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainers,
+		final int[] dataOffsets)
+	{
+		final Path primaryFilePath = PersistFormat.BINARY.resolve(this.file);
+		final long primaryFileSize;
+		final long primaryFileModifiedMs;
+		try
+		{
+			primaryFileSize = Files.size(primaryFilePath);
+			primaryFileModifiedMs = Files.getLastModifiedTime(primaryFilePath).toMillis();
+		}
+		catch(final IOException ioe)
+		{
+			LOG.warn("Failed to determine attributes of {}", primaryFilePath, ioe);
+			return;
+		}
+		if(primaryFileSize > Integer.MAX_VALUE)
+		{
+			LOG.warn("{} is too large to be indexed", primaryFilePath);
+			return;
+		}
+		
+		Persister.trySaveBinary(
 			LOG,
-			this.file,
-			() -> new PersistentState(
-				this.uuidUsernames.entrySet()
-					.stream()
-					.collect(toLinkedHashMap(
-						e -> e.getKey().toString(),
-						Map.Entry::getValue
-					)),
-				uuidProfileContainerSaveMap.entrySet()
-					.stream()
-					.collect(toLinkedHashMap(
-						e -> e.getKey().toString(),
-						e -> e.getValue().persist()
-					))));
+			this.indexFile,
+			INDEX_VERSION,
+			out -> this.writeIndex(out, uuidProfileContainers, dataOffsets, primaryFileSize, primaryFileModifiedMs));
+	}
+	
+	private void writeIndex(
+		final DataOutputStream out,
+		final LinkedHashMap<UUID, ProfileContainer> uuidProfileContainers,
+		final int[] dataOffsets,
+		final long primaryFileSize,
+		final long primaryFileModifiedMs) throws IOException
+	{
+		final int profileCount = uuidProfileContainers.size();
+		final byte[][] names = new byte[profileCount][];
+		
+		out.writeLong(primaryFileSize);
+		out.writeLong(primaryFileModifiedMs);
+		out.writeInt(profileCount);
+		
+		int i = 0;
+		for(final Map.Entry<UUID, ProfileContainer> entry : uuidProfileContainers.entrySet())
+		{
+			final String username = this.usernameOf(entry.getKey());
+			names[i] = username != null ? username.getBytes(StandardCharsets.UTF_8) : null;
+			
+			out.writeLong(entry.getKey().getMostSignificantBits());
+			out.writeLong(entry.getKey().getLeastSignificantBits());
+			out.writeLong(entry.getValue().createdAt().getEpochSecond());
+			out.writeInt(names[i] != null ? names[i].length : -1);
+			out.writeInt(dataOffsets[i]);
+			// Already encoded when the primary file was written
+			out.writeInt(entry.getValue().encodedLength());
+			i++;
+		}
+		
+		for(final byte[] name : names)
+		{
+			if(name != null)
+			{
+				out.write(name);
+			}
+		}
+	}
+	
+	/**
+	 * The primary (binary) file from which the profiles of the index are read when they are accessed.
+	 * <p>
+	 * The file is not kept open or mapped, so that it can always be replaced when saving.
+	 * Before it's replaced all profiles are read (when writing the new file) and it's invalidated.
+	 * </p>
+	 */
+	static final class PrimaryFile
+	{
+		private final Path path;
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private boolean valid = true;
+		
+		PrimaryFile(final Path path)
+		{
+			this.path = path;
+		}
+		
+		byte[] read(final int offset, final int length) throws IOException
+		{
+			this.lock.readLock().lock();
+			try
+			{
+				if(!this.valid)
+				{
+					throw new IOException("Primary file was already replaced");
+				}
+				try(final FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ))
+				{
+					final ByteBuffer buffer = ByteBuffer.allocate(length);
+					while(buffer.hasRemaining())
+					{
+						if(channel.read(buffer, (long)offset + buffer.position()) < 0)
+						{
+							throw new EOFException("Unexpected end of " + this.path);
+						}
+					}
+					return buffer.array();
+				}
+			}
+			finally
+			{
+				this.lock.readLock().unlock();
+			}
+		}
+		
+		void invalidate()
+		{
+			this.lock.writeLock().lock();
+			try
+			{
+				this.valid = false;
+			}
+			finally
+			{
+				this.lock.writeLock().unlock();
+			}
+		}
+	}
+	
+	// endregion
+	
+	record LoadedState(
+		LinkedHashMap<UUID, ProfileContainer> uuidProfileContainers,
+		Map<UUID, String> uuidUsernames
+	)
+	{
+		LoadedState()
+		{
+			this(new LinkedHashMap<>(), Map.of());
+		}
 	}
 	
 	public void registerOnAddedProfileAsyncHandlers(final Object owner, final Consumer<GameProfile> consumer)
@@ -333,16 +964,161 @@ public class GameProfileCacheManager
 		this.onAddedProfileAsyncHandlers.put(owner, consumer);
 	}
 	
-	record ProfileContainer(
-		String serializedGameProfile,
-		Supplier<GameProfile> gameProfileSupplier,
+	public record CachedGameProfile(
+		GameProfile profile,
 		Instant createdAt
 	)
 	{
+	}
+	
+	
+	record IndexEntry(
+		UUID id,
+		@Nullable String username,
+		ProfileContainer container
+	)
+	{
+	}
+	
+	
+	/**
+	 * Contains a profile in its compact encoded form (UTF-8 JSON).
+	 * <p>
+	 * Newly added profiles are kept as is until they were encoded (outside the login path).
+	 * </p>
+	 * Note: Uses identity for equals/hashCode.
+	 */
+	static final class ProfileContainer
+	{
+		private final Instant createdAt;
+		// Only present until the profile was encoded
+		@Nullable
+		private volatile GameProfile pendingProfile;
+		@Nullable
+		private volatile byte[] encoded;
+		// Location in the primary file; only present when the container was created from the index
+		@Nullable
+		private final PrimaryFile storedIn;
+		private final int storedOffset;
+		private final int storedLength;
+		// If the encoded size is included in the cached bytes; guarded by the lock of the cache
+		private boolean accounted;
+		
+		private ProfileContainer(
+			@Nullable final GameProfile pendingProfile,
+			@Nullable final byte[] encoded,
+			@Nullable final PrimaryFile storedIn,
+			final int storedOffset,
+			final int storedLength,
+			final Instant createdAt)
+		{
+			this.pendingProfile = pendingProfile;
+			this.encoded = encoded;
+			this.storedIn = storedIn;
+			this.storedOffset = storedOffset;
+			this.storedLength = storedLength;
+			this.createdAt = createdAt;
+		}
+		
+		static ProfileContainer encoded(final byte[] encoded, final Instant createdAt)
+		{
+			return new ProfileContainer(null, encoded, null, 0, -1, createdAt);
+		}
+		
+		static ProfileContainer pending(final GameProfile profile, final Instant createdAt)
+		{
+			return new ProfileContainer(profile, null, null, 0, -1, createdAt);
+		}
+		
+		static ProfileContainer stored(
+			final PrimaryFile storedIn,
+			final int storedOffset,
+			final int storedLength,
+			final Instant createdAt)
+		{
+			return new ProfileContainer(null, null, storedIn, storedOffset, storedLength, createdAt);
+		}
+		
+		Instant createdAt()
+		{
+			return this.createdAt;
+		}
+		
+		@Nullable
+		GameProfile pendingProfile()
+		{
+			return this.pendingProfile;
+		}
+		
+		boolean isEncoded()
+		{
+			return this.encoded != null || this.storedIn != null;
+		}
+		
+		/**
+		 * @return the length of the encoded profile or -1 if it's not encoded yet
+		 */
+		int encodedLength()
+		{
+			final byte[] e = this.encoded;
+			if(e != null)
+			{
+				return e.length;
+			}
+			return this.storedIn != null ? this.storedLength : -1;
+		}
+		
+		byte[] encoded()
+		{
+			byte[] result = this.encoded;
+			if(result == null)
+			{
+				synchronized(this)
+				{
+					result = this.encoded;
+					if(result == null)
+					{
+						result = this.storedIn != null
+							? this.readStored()
+							: JSONSerializer.FAST_OBJECT_MAPPER.writeValueAsString(this.pendingProfile)
+								.getBytes(StandardCharsets.UTF_8);
+						// Set encoded before removing the pending profile so that one of both is always present
+						this.encoded = result;
+						this.pendingProfile = null;
+					}
+				}
+			}
+			return result;
+		}
+		
+		private byte[] readStored()
+		{
+			try
+			{
+				return this.storedIn.read(this.storedOffset, this.storedLength);
+			}
+			catch(final IOException ioe)
+			{
+				throw new UncheckedIOException(ioe);
+			}
+		}
+		
+		GameProfile decode()
+		{
+			final GameProfile profile = this.pendingProfile;
+			if(profile != null)
+			{
+				return profile;
+			}
+			return JSONSerializer.FAST_OBJECT_MAPPER.readValue(
+				new String(this.encoded(), StandardCharsets.UTF_8),
+				GameProfile.class);
+		}
+		
 		PersistentState.PersistentProfileContainer persist()
 		{
 			return new PersistentState.PersistentProfileContainer(
-				this.serializedGameProfile(),
+				new String(this.encoded(), StandardCharsets.UTF_8),
 				this.createdAt()
 			);
 		}
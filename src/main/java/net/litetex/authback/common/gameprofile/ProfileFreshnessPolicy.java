@@ -0,0 +1,153 @@
+package net.litetex.authback.common.gameprofile;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mojang.authlib.yggdrasil.ProfileActionType;
+import com.mojang.authlib.yggdrasil.ProfileResult;
+
+import net.litetex.authback.shared.collections.MaxSizedLinkedHashMap;
+import net.litetex.authback.shared.config.Configuration;
+import net.litetex.authback.shared.sync.SynchronizedContainer;
+import net.minecraft.util.Util;
+
+
+/**
+ * Decides if a cached game profile can be used instead of fetching the profile properties from the API
+ * (stale-while-revalidate).
+ * <ul>
+ *     <li>Fresh (younger than the freshness TTL): The cached profile is used</li>
+ *     <li>Stale (between the freshness TTL and the hard expiry): The cached profile is used
+ *     and a single revalidation per profile is started in the background</li>
+ *     <li>Expired: The profile properties need to be fetched</li>
+ * </ul>
+ * <p>
+ * The profile actions (e.g. forced name change) are not part of the cached profile.
+ * They are remembered (in memory) when the profile is fetched and a cached profile is only used if they are known.
+ * </p>
+ */
+public class ProfileFreshnessPolicy
+{
+	private static final Logger LOG = LoggerFactory.getLogger(ProfileFreshnessPolicy.class);
+	
+	private final Duration freshFor;
+	private final Duration hardExpiry;
+	
+	private final Set<UUID> revalidatingUUIDs = ConcurrentHashMap.newKeySet();
+	
+	private final SynchronizedContainer<MaxSizedLinkedHashMap<UUID, Set<ProfileActionType>>> profileActionTypesSC;
+	
+	public ProfileFreshnessPolicy(
+		final Duration freshFor,
+		final Duration hardExpiry,
+		final int maxKnownProfileActions)
+	{
+		this.freshFor = freshFor;
+		this.hardExpiry = hardExpiry.compareTo(freshFor) > 0 ? hardExpiry : freshFor;
+		this.profileActionTypesSC = new SynchronizedContainer<>(
+			new MaxSizedLinkedHashMap<>(Math.max(maxKnownProfileActions, 1)));
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	@Nullable
+	public static ProfileFreshnessPolicy create(final Configuration config, final int maxCachedGameProfiles)
+	{
+		final String prefix = "profile-properties.";
+		final int freshForSeconds = config.getInteger(prefix + "fresh-for-seconds", 300);
+		if(freshForSeconds <= 0)
+		{
+			return null;
+		}
+		return new ProfileFreshnessPolicy(
+			Duration.ofSeconds(freshForSeconds),
+			Duration.ofHours(config.getInteger(prefix + "hard-expiry-hours", 24)),
+			maxCachedGameProfiles);
+	}
+	
+	/**
+	 * Remembers the profile actions of a freshly fetched (and cached) profile.
+	 */
+	public void recordProfileActionTypes(final UUID id, final Set<ProfileActionType> profileActionTypes)
+	{
+		this.profileActionTypesSC.execWithLock(m -> m.put(id, Set.copyOf(profileActionTypes)));
+	}
+	
+	/**
+	 * @param revalidator            fetches the profile properties (and updates the cache);
+	 *                               executed in the background
+	 * @param profileActionsRequired if the cached profile may only be used when its profile actions are known
+	 * @return the result of the cached profile if it can be used otherwise <code>null</code>
+	 */
+	@Nullable
+	public ProfileResult findUsable(
+		final GameProfileCacheManager gameProfileCacheManager,
+		final UUID id,
+		final Consumer<UUID> revalidator,
+		final boolean profileActionsRequired)
+	{
+		final Set<ProfileActionType> profileActionTypes = this.profileActionTypesSC.supplyWithLock(m -> m.get(id));
+		if(profileActionTypes == null && profileActionsRequired)
+		{
+			LOG.debug("Profile actions of {} are unknown - fetching profile properties", id);
+			return null;
+		}
+		
+		final GameProfileCacheManager.CachedGameProfile cached = gameProfileCacheManager.findCachedByUUID(id);
+		if(cached == null)
+		{
+			return null;
+		}
+		
+		final ProfileResult result = new ProfileResult(
+			cached.profile(),
+			profileActionTypes != null ? profileActionTypes : Set.of());
+		final Duration age = Duration.between(cached.createdAt(), Instant.now());
+		if(age.compareTo(this.freshFor) < 0)
+		{
+			LOG.debug("Using fresh cached profile properties for {}", id);
+			return result;
+		}
+		if(age.compareTo(this.hardExpiry) >= 0)
+		{
+			return null;
+		}
+		
+		LOG.debug("Using stale cached profile properties for {}", id);
+		this.revalidateInBackground(id, revalidator);
+		return result;
+	}
+	
+	private void revalidateInBackground(final UUID id, final Consumer<UUID> revalidator)
+	{
+		// Only one revalidation per profile at a time
+		if(!this.revalidatingUUIDs.add(id))
+		{
+			return;
+		}
+		
+		CompletableFuture.runAsync(
+			() -> {
+				try
+				{
+					revalidator.accept(id);
+				}
+				catch(final Exception ex)
+				{
+					LOG.warn("Failed to revalidate profile properties for {}", id, ex);
+				}
+				finally
+				{
+					this.revalidatingUUIDs.remove(id);
+				}
+			}, Util.nonCriticalIoPool());
+	}
+}
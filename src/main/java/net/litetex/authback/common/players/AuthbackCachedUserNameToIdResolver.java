@@ -3,7 +3,6 @@ package net.litetex.authback.common.players;
 import java.lang.reflect.Type;
 import java.nio.file.Path;
 import java.time.Duration;
-import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -20,11 +19,14 @@ import java.util.UUID;
 import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+import org.jetbrains.annotations.Nullable;
 import org.jspecify.annotations.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,15 +41,21 @@ import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 import com.mojang.authlib.GameProfile;
 import com.mojang.authlib.GameProfileRepository;
+import com.mojang.authlib.ProfileLookupCallback;
+import com.mojang.authlib.yggdrasil.ProfileNotFoundException;
 
+import net.litetex.authback.common.circuitbreaker.CircuitBreaker;
 import net.litetex.authback.common.gameprofile.GameProfileCacheManager;
 import net.litetex.authback.shared.collections.MaxSizedLinkedHashMap;
+import net.litetex.authback.shared.io.PersistScheduler;
 import net.litetex.authback.shared.io.Persister;
+import net.litetex.authback.shared.maintenance.IncrementalCleanup;
+import net.litetex.authback.shared.maintenance.MaintenanceScheduler;
+import net.litetex.authback.shared.sync.SingleFlight;
 import net.litetex.authback.shared.sync.SynchronizedContainer;
 import net.minecraft.server.players.NameAndId;
 import net.minecraft.server.players.UserNameToIdResolver;
 import net.minecraft.util.StringUtil;
-import net.minecraft.util.Util;
 
 
 /**
@@ -58,14 +66,18 @@ import net.minecraft.util.Util;
  *     <li>If the users UUID can't be resolved the user is NOT treated as offline.
  *     No incorrect UUIDs (v3 not v4) will therefore be stored in the file.</li>
  *     <li>The file is saved async</li>
- *     <li>On access player information will be refreshed in the background BEFORE it expires.
+ *     <li>Player information will be refreshed in the background BEFORE it expires.
+ *     All entries that require a refresh are refreshed together using bulk lookups.
  *     Situations where no information is available should therefore occur almost never.</li>
+ *     <li>Cleanups and refreshes are executed in the background - lookups never need to execute them</li>
  *     <li>Removed legacy code before Java 8 code (like Date)</li>
  *     <li>Collections are kept with order and don't require sorting before each save</li>
  *     <li>Optimized serializer</li>
  *     <li>Cache-File is pretty printed and human-readable</li>
  *     <li>Information from fetched GameProfiles will be re-used if applicable</li>
  *     <li>{@link GameProfileCacheManager} is used as a secondary cache</li>
+ *     <li>Names that don't exist are remembered for a short time and not looked up again</li>
+ *     <li>Concurrent lookups of the same name share a single request</li>
  * </ul>
  */
 public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
@@ -76,7 +88,6 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		.setPrettyPrinting()
 		.create();
 	
-	private static final Duration CLEANUP_EXECUTION_INTERVAL = Duration.ofHours(12);
 	private static final float TARGET_PROFILE_COUNT_PERCENT = 0.9f;
 	
 	private final int maxTargetedProfileCount;
@@ -84,10 +95,14 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 	
 	private final Duration expiresAfter;
 	private final Duration refreshBeforeExpire;
-	private Instant nextCleanUpTime = Instant.MIN;
 	
 	private final GameProfileRepository gameProfileRepository;
+	private final CircuitBreaker lookupCircuitBreaker;
+	private final BulkNameRefresher bulkNameRefresher;
 	private final Path file;
+	private final PersistScheduler.Registration persistRegistration;
+	private final MaintenanceScheduler.Task maintenanceTask;
+	private final int cleanupBatchSize;
 	
 	// Secondary Cache
 	private final Optional<Supplier<GameProfileCacheManager>> optGameProfileCacheManagerSupplier;
@@ -99,23 +114,40 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		new SynchronizedContainer<>(new HashMap<>());
 	private final Set<UUID> uuidsRequiringRefresh = Collections.newSetFromMap(new ConcurrentHashMap<>());
 	
+	// Names confirmed to not exist - separated from the other caches
+	private final Optional<NegativeNameLookupCache> optNegativeNameLookupCache;
+	
+	// Concurrent lookups of the same (lowercase) name share a single request
+	private final SingleFlight<String, Optional<NameAndId>> nameLookups = new SingleFlight<>();
+	
 	private Optional<OfflineProfiles> optOfflineProfiles = Optional.empty();
 	
 	@SuppressWarnings("PMD.ExcessiveParameterList")
 	public AuthbackCachedUserNameToIdResolver(
 		final GameProfileRepository gameProfileRepository,
+		final CircuitBreaker lookupCircuitBreaker,
+		final BulkNameRefresher bulkNameRefresher,
 		final Path file,
+		final PersistScheduler persistScheduler,
+		final MaintenanceScheduler maintenanceScheduler,
 		final CompletableFuture<GameProfileCacheManager> cfGameProfileCacheManager,
 		final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier,
 		final Duration expiresAfter,
 		final Duration refreshBeforeExpire,
 		final int maxTargetedProfileCount,
+		final Duration negativeLookupExpiresAfter,
+		final int negativeLookupMaxCacheSize,
 		final boolean resolveOfflineUsers,
 		final boolean updateOnGameProfileFetch,
 		final boolean useGameProfileCache)
 	{
 		this.gameProfileRepository = gameProfileRepository;
+		this.lookupCircuitBreaker = lookupCircuitBreaker;
+		this.bulkNameRefresher = bulkNameRefresher;
 		this.file = file;
+		this.persistRegistration = persistScheduler.register(file.getFileName().toString(), this::saveToFile);
+		this.maintenanceTask = maintenanceScheduler.register(file.getFileName().toString(), this::maintain);
+		this.cleanupBatchSize = maintenanceScheduler.cleanupBatchSize();
 		
 		this.expiresAfter = expiresAfter;
 		this.refreshBeforeExpire = refreshBeforeExpire;
@@ -127,6 +159,10 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		this.maxTargetedProfileCount = maxTargetedProfileCount;
 		this.targetedProfileCount = Math.max(Math.round(maxTargetedProfileCount * TARGET_PROFILE_COUNT_PERCENT), 1);
 		
+		this.optNegativeNameLookupCache = negativeLookupExpiresAfter.isPositive() && negativeLookupMaxCacheSize > 0
+			? Optional.of(new NegativeNameLookupCache(negativeLookupExpiresAfter, negativeLookupMaxCacheSize))
+			: Optional.empty();
+		
 		this.initReadFileAsync();
 		this.resolveOfflineUsers(resolveOfflineUsers);
 		
@@ -165,12 +201,20 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 			}
 			
 			this.uuidsRequiringRefresh.remove(nameAndId.id());
+			this.optNegativeNameLookupCache.ifPresent(c -> c.invalidate(name));
 			
 			final GameProfileInfo gpi = new GameProfileInfo(nameAndId, OffsetDateTime.now().plus(this.expiresAfter));
-			this.uuidProfilesSC.execWithLock(m -> m.putFirst(nameAndId.id(), gpi));
+			final int size = this.uuidProfilesSC.supplyWithLock(m -> {
+				m.putFirst(nameAndId.id(), gpi);
+				return m.size();
+			});
 			this.nameProfilesSC.execWithLock(m -> m.put(name, gpi));
 			
 			this.saveAsync();
+			if(size > this.maxTargetedProfileCount)
+			{
+				this.maintenanceTask.requestRun();
+			}
 		}
 		finally
 		{
@@ -178,6 +222,32 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		}
 	}
 	
+	/**
+	 * Adds multiple (online) entries at once - readers will never see a partially applied state.
+	 */
+	private void addAll(final List<NameAndId> nameAndIds)
+	{
+		LOG.debug("AddAll {}x", nameAndIds.size());
+		
+		final long startMs = System.currentTimeMillis();
+		final OffsetDateTime expiresOn = OffsetDateTime.now().plus(this.expiresAfter);
+		this.uuidProfilesSC.execWithLock(uuidProfiles -> this.nameProfilesSC.execWithLock(nameProfiles -> {
+			for(final NameAndId nameAndId : nameAndIds)
+			{
+				final String name = nameAndId.name().toLowerCase(Locale.ROOT);
+				this.uuidsRequiringRefresh.remove(nameAndId.id());
+				this.optNegativeNameLookupCache.ifPresent(c -> c.invalidate(name));
+				
+				final GameProfileInfo gpi = new GameProfileInfo(nameAndId, expiresOn);
+				uuidProfiles.putFirst(nameAndId.id(), gpi);
+				nameProfiles.put(name, gpi);
+			}
+		}));
+		
+		this.saveAsync();
+		LOG.debug("AddAll {}x took {}ms", nameAndIds.size(), System.currentTimeMillis() - startMs);
+	}
+	
 	private void addIfRequired(final GameProfile gameProfile)
 	{
 		final UUID id = gameProfile.id();
@@ -233,16 +303,13 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 			// 1. Try to read from cache
 			return this.getFromCache(
 					this.nameProfilesSC,
-					gpi -> {
-						this.refreshInBackgroundIfRequired(gpi);
-						return gpi.toNameAndId();
-					},
+					GameProfileInfo::toNameAndId,
 					this.optOfflineProfiles.map(OfflineProfiles::nameProfilesSC),
 					GameProfileCacheManager::findByName,
 					name.toLowerCase(Locale.ROOT), // Case-insensitive
 					name)
-				// 2. Try to look up
-				.or(() -> this.performLookup(name)
+				// 2. Try to look up (if the name is not known to be missing)
+				.or(() -> this.performLookupIfNotKnownMissing(name)
 					// 3. If not resolved and in "resolve offline users"-mode -> Create
 					.or(() -> this.optOfflineProfiles.map(ignored -> NameAndId.createOffline(name)))
 					// 2B. Write to cache if present
@@ -254,31 +321,46 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		}
 	}
 	
-	private void refreshInBackgroundIfRequired(final GameProfileInfo gpi)
+	private void refreshRequiredInBackground()
 	{
-		if(!this.uuidsRequiringRefresh.remove(gpi.uuid()))
+		// Refresh everything that requires it - this way only a few (bulk) requests are needed
+		final List<GameProfileInfo> gpisToRefresh = this.uuidProfilesSC.supplyWithLock(m ->
+			this.uuidsRequiringRefresh.stream()
+				.map(m::get)
+				.filter(Objects::nonNull)
+				.toList());
+		if(this.bulkNameRefresher.tryStart(
+			gpisToRefresh.stream().map(GameProfileInfo::name).toList(),
+			this::addAll))
 		{
-			return;
+			// Entries that are not found (e.g. because the name was changed) will expire
+			gpisToRefresh.forEach(g -> this.uuidsRequiringRefresh.remove(g.uuid()));
 		}
-		
-		CompletableFuture.runAsync(
-			() -> {
-				try
-				{
-					this.performLookup(gpi.name()).ifPresent(this::addToCache);
-				}
-				catch(final Exception ex)
-				{
-					LOG.warn("Failed to refresh GameProfileInfo[{}] in background", gpi, ex);
-				}
-			}, Util.nonCriticalIoPool());
+	}
+	
+	private Optional<NameAndId> performLookupIfNotKnownMissing(final String name)
+	{
+		final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+		if(this.optNegativeNameLookupCache.map(c -> c.isKnownMissing(lowerCaseName)).orElse(false))
+		{
+			LOG.debug("Player '{}' is known to not exist - skipping lookup", name);
+			return Optional.empty();
+		}
+		return this.performLookup(name);
 	}
 	
 	private Optional<NameAndId> performLookup(final String name)
+	{
+		return this.nameLookups.execute(name.toLowerCase(Locale.ROOT), () -> this.performLookupUncoalesced(name));
+	}
+	
+	private Optional<NameAndId> performLookupUncoalesced(final String name)
 	{
 		final long startMs = System.currentTimeMillis();
-		final Optional<NameAndId> nameAndId = this.gameProfileRepository.findProfileByName(name)
-			.map(NameAndId::new);
+		// When the API is unavailable only the caches are used
+		final Optional<NameAndId> nameAndId = this.lookupCircuitBreaker.tryAcquirePermission()
+			? Optional.ofNullable(this.lookup(name))
+			: Optional.empty();
 		LOG.debug(
 			"Player '{}' has UUID {}, took {}ms",
 			name,
@@ -288,6 +370,57 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		return nameAndId;
 	}
 	
+	/**
+	 * Executes the lookup for which the permission of the circuit breaker was already acquired.
+	 */
+	@Nullable
+	private NameAndId lookup(final String name)
+	{
+		// findProfileByName swallows API errors into an empty result
+		// so use the callback to distinguish between "not found" and "failed"
+		final AtomicReference<NameAndId> found = new AtomicReference<>();
+		final AtomicBoolean failed = new AtomicBoolean();
+		
+		final long startNanos = System.nanoTime();
+		try
+		{
+			this.gameProfileRepository.findProfilesByNames(
+				new String[]{name},
+				new ProfileLookupCallback()
+				{
+					@Override
+					public void onProfileLookupSucceeded(final String profileName, final UUID profileId)
+					{
+						found.set(new NameAndId(profileId, profileName));
+					}
+					
+					@Override
+					public void onProfileLookupFailed(final String profileName, final Exception exception)
+					{
+						// Only remember the name when the API confirmed that it doesn't exist
+						if(exception instanceof ProfileNotFoundException)
+						{
+							AuthbackCachedUserNameToIdResolver.this.optNegativeNameLookupCache
+								.ifPresent(c -> c.markMissing(name.toLowerCase(Locale.ROOT)));
+							return;
+						}
+						failed.set(true);
+						LOG.debug("Failed to look up '{}'", profileName, exception);
+					}
+				});
+		}
+		catch(final RuntimeException ex)
+		{
+			failed.set(true);
+			LOG.warn("Failed to look up '{}'", name, ex);
+		}
+		finally
+		{
+			this.lookupCircuitBreaker.onCallFinished(failed.get(), Duration.ofNanos(System.nanoTime() - startNanos));
+		}
+		return found.get();
+	}
+	
 	private <K> Optional<NameAndId> getFromCache(
 		final SynchronizedContainer<? extends Map<K, GameProfileInfo>> onlineSC,
 		final Optional<SynchronizedContainer<LinkedHashMap<K, NameAndId>>> optOfflineSC,
@@ -311,8 +444,6 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		final K primaryCacheKey,
 		final K secondaryCacheKey)
 	{
-		this.cleanUpIfRequired();
-		
 		// 1. Check normal "online" players cache
 		return Optional.ofNullable(onlineSC.supplyWithLock(m -> m.get(primaryCacheKey)))
 			.map(onlineGPIToNameAndId)
@@ -325,6 +456,16 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 				.map(NameAndId::new));
 	}
 	
+	public Optional<NegativeNameLookupCache.Stats> negativeNameLookupStats()
+	{
+		return this.optNegativeNameLookupCache.map(NegativeNameLookupCache::stats);
+	}
+	
+	public long coalescedNameLookups()
+	{
+		return this.nameLookups.coalescedCalls();
+	}
+	
 	// region Offline users
 	@Override
 	public void resolveOfflineUsers(final boolean resolveOffline)
@@ -363,45 +504,52 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 	// endregion
 	// region Cleanup
 	
-	private void cleanUpIfRequired()
+	/**
+	 * Executed by the {@link MaintenanceScheduler}: Removes expired entries, trims the cache and refreshes
+	 * entries that will expire soon.
+	 *
+	 * @return the amount of removed entries
+	 */
+	private int maintain()
 	{
-		final Instant now = Instant.now();
-		if(!(this.nextCleanUpTime.isBefore(now)
-			|| this.uuidProfilesSC.value().size() > this.maxTargetedProfileCount))
+		final int removed = this.cleanUp();
+		if(removed > 0)
 		{
-			return;
+			this.saveAsync();
 		}
 		
+		this.refreshRequiredInBackground();
+		return removed;
+	}
+	
+	private int cleanUp()
+	{
 		LOG.debug("Executing cleanup");
-		this.nextCleanUpTime = now.plus(CLEANUP_EXECUTION_INTERVAL);
 		
 		final OffsetDateTime odtNow = OffsetDateTime.now();
 		final OffsetDateTime odtRefreshTime = odtNow.plus(this.refreshBeforeExpire);
 		
 		final long startMs = System.currentTimeMillis();
-		this.uuidsRequiringRefresh.clear();
-		this.uuidProfilesSC.execWithLock(
-			uuidProfiles -> {
-				this.removeAllWithoutLock(findEntriesExpiredBefore(uuidProfiles, odtNow).stream());
-				
-				findEntriesExpiredBefore(uuidProfiles, odtRefreshTime).stream()
-					.map(Map.Entry::getKey)
-					.forEach(this.uuidsRequiringRefresh::add);
-			});
+		// The oldest entry is at the end - expired entries and entries above the targeted size are removed
+		final int removed = IncrementalCleanup.removeOldest(
+			this.uuidProfilesSC,
+			LinkedHashMap::lastEntry,
+			(gpi, size) -> gpi.expiresOn().isBefore(odtNow) || size > this.targetedProfileCount,
+			this::removeWithoutLock,
+			this.cleanupBatchSize);
 		
 		final long start2Ms = System.currentTimeMillis();
-		LOG.debug("Cleanup with expiresOn took {}ms", start2Ms - startMs);
+		LOG.debug("Cleanup removed {}x entries, took {}ms", removed, start2Ms - startMs);
 		
-		if(this.uuidProfilesSC.value().size() > this.targetedProfileCount)
-		{
-			this.uuidProfilesSC.execWithLock(uuidProfileContainers ->
-				this.removeAllWithoutLock(uuidProfileContainers.entrySet()
-					.stream()
-					// Skip instead of limit because we want to remove the end = oldest entries
-					.skip(this.targetedProfileCount)));
-			
-			LOG.debug("Cleanup trim to targetedProfileCount took {}ms", System.currentTimeMillis() - start2Ms);
-		}
+		// Only the entries that expire soon are visited (starting at the oldest end)
+		this.uuidsRequiringRefresh.clear();
+		this.uuidProfilesSC.execWithLock(uuidProfiles ->
+			findEntriesExpiredBefore(uuidProfiles, odtRefreshTime).stream()
+				.map(Map.Entry::getKey)
+				.forEach(this.uuidsRequiringRefresh::add));
+		LOG.debug("Cleanup find entries requiring refresh took {}ms", System.currentTimeMillis() - start2Ms);
+		
+		return removed;
 	}
 	
 	private static @NonNull List<Map.Entry<UUID, GameProfileInfo>> findEntriesExpiredBefore(
@@ -422,13 +570,6 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 		return entriesToDelete;
 	}
 	
-	private void removeAllWithoutLock(final Stream<Map.Entry<UUID, GameProfileInfo>> stream)
-	{
-		stream.map(Map.Entry::getKey)
-			.toList() // Collect to prevent modification
-			.forEach(this::removeWithoutLock);
-	}
-	
 	private void removeWithoutLock(final UUID uuid)
 	{
 		final GameProfileInfo removed = this.uuidProfilesSC.value().remove(uuid);
@@ -450,7 +591,7 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 					this.initReadFile(uuidProfilesRaw, nameProfilesRaw);
 				}));
 			
-			this.cleanUpIfRequired();
+			this.maintenanceTask.requestRun();
 		});
 	}
 	
@@ -486,21 +627,22 @@ public class AuthbackCachedUserNameToIdResolver implements UserNameToIdResolver
 	@Override
 	public void save()
 	{
-		this.saveAsync();
+		// Explicitly requested (e.g. when the server stops) -> Don't wait for the debounce
+		this.persistRegistration.flushAsync();
 	}
 	
 	private void saveAsync()
 	{
-		CompletableFuture.runAsync(this::saveToFile);
+		this.persistRegistration.markDirty();
 	}
 	
-	private synchronized void saveToFile()
+	private synchronized boolean saveToFile()
 	{
 		final List<GameProfileInfo> gameProfileInfos =
 			this.uuidProfilesSC.supplyWithLock(m -> new ArrayList<>(m.values()));
 		
 		LOG.debug("Saving {}x gameProfileInfos", gameProfileInfos.size());
-		Persister.trySave(
+		return Persister.trySave(
 			LOG,
 			this.file,
 			GSON,
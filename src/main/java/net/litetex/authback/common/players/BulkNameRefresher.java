@@ -0,0 +1,191 @@
+package net.litetex.authback.common.players;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mojang.authlib.GameProfileRepository;
+import com.mojang.authlib.ProfileLookupCallback;
+import com.mojang.authlib.yggdrasil.ProfileNotFoundException;
+
+import net.litetex.authback.common.circuitbreaker.CircuitBreaker;
+import net.minecraft.server.players.NameAndId;
+
+
+/**
+ * Refreshes names (and their ids) in the background using the bulk lookup of the API
+ * (multiple names per request).
+ * <p>
+ * The names are split into batches which are processed by a limited amount of workers.
+ * Each worker waits between its requests to not hit rate limits.
+ * Only one refresh is executed at a time.
+ * </p>
+ */
+public class BulkNameRefresher
+{
+	private static final Logger LOG = LoggerFactory.getLogger(BulkNameRefresher.class);
+	
+	private final GameProfileRepository gameProfileRepository;
+	private final CircuitBreaker lookupCircuitBreaker;
+	private final int batchSize;
+	private final int maxConcurrentRequests;
+	private final Duration delayBetweenRequests;
+	
+	private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+		.name("AuthBack-BulkNameRefresh-", 0)
+		.factory());
+	private final AtomicBoolean running = new AtomicBoolean();
+	
+	public BulkNameRefresher(
+		final GameProfileRepository gameProfileRepository,
+		final CircuitBreaker lookupCircuitBreaker,
+		final int batchSize,
+		final int maxConcurrentRequests,
+		final Duration delayBetweenRequests)
+	{
+		this.gameProfileRepository = gameProfileRepository;
+		this.lookupCircuitBreaker = lookupCircuitBreaker;
+		this.batchSize = Math.max(batchSize, 1);
+		this.maxConcurrentRequests = Math.max(maxConcurrentRequests, 1);
+		this.delayBetweenRequests = delayBetweenRequests;
+	}
+	
+	/**
+	 * Starts a refresh in the background unless one is already running.
+	 *
+	 * @param batchResultApplier applies the found entries of a single batch (called once per batch)
+	 * @return <code>true</code> if the refresh was started
+	 */
+	public boolean tryStart(final List<String> names, final Consumer<List<NameAndId>> batchResultApplier)
+	{
+		if(names.isEmpty() || !this.running.compareAndSet(false, true))
+		{
+			return false;
+		}
+		
+		final Queue<List<String>> batches = new ConcurrentLinkedQueue<>();
+		for(int i = 0; i < names.size(); i += this.batchSize)
+		{
+			batches.add(names.subList(i, Math.min(i + this.batchSize, names.size())));
+		}
+		
+		LOG.debug("Refreshing {}x names in {}x batches", names.size(), batches.size());
+		final long startMs = System.currentTimeMillis();
+		final AtomicInteger foundCount = new AtomicInteger();
+		final Consumer<List<NameAndId>> countingApplier = found -> {
+			foundCount.addAndGet(found.size());
+			batchResultApplier.accept(found);
+		};
+		
+		final int workerCount = Math.min(this.maxConcurrentRequests, batches.size());
+		CompletableFuture.allOf(
+				Collections.nCopies(workerCount, (Runnable)() -> this.work(batches, countingApplier))
+					.stream()
+					.map(r -> CompletableFuture.runAsync(r, this.executor))
+					.toArray(CompletableFuture[]::new))
+			.whenComplete((ignored, ex) -> {
+				this.running.set(false);
+				if(ex != null)
+				{
+					LOG.warn("Failed to refresh names", ex);
+				}
+				LOG.debug(
+					"Refreshed {}/{}x names, took {}ms",
+					foundCount.get(),
+					names.size(),
+					System.currentTimeMillis() - startMs);
+			});
+		return true;
+	}
+	
+	private void work(final Queue<List<String>> batches, final Consumer<List<NameAndId>> batchResultApplier)
+	{
+		List<String> batch;
+		while((batch = batches.poll()) != null)
+		{
+			if(!this.lookupCircuitBreaker.tryAcquirePermission())
+			{
+				LOG.debug("API is unavailable - aborting refresh of names");
+				batches.clear();
+				return;
+			}
+			
+			final List<NameAndId> found = this.lookup(batch);
+			if(!found.isEmpty())
+			{
+				batchResultApplier.accept(found);
+			}
+			
+			if(!batches.isEmpty() && !this.delayBetweenRequests.isZero())
+			{
+				try
+				{
+					Thread.sleep(this.delayBetweenRequests);
+				}
+				catch(final InterruptedException iex)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Executes the lookup for a batch for which the permission of the circuit breaker was already acquired.
+	 */
+	private List<NameAndId> lookup(final List<String> names)
+	{
+		final List<NameAndId> found = Collections.synchronizedList(new ArrayList<>(names.size()));
+		final AtomicBoolean failed = new AtomicBoolean();
+		
+		final long startNanos = System.nanoTime();
+		try
+		{
+			this.gameProfileRepository.findProfilesByNames(
+				names.toArray(String[]::new),
+				new ProfileLookupCallback()
+				{
+					@Override
+					public void onProfileLookupSucceeded(final String profileName, final UUID profileId)
+					{
+						found.add(new NameAndId(profileId, profileName));
+					}
+					
+					@Override
+					public void onProfileLookupFailed(final String profileName, final Exception exception)
+					{
+						// Names that no longer exist are expected and not a problem of the API
+						if(!(exception instanceof ProfileNotFoundException))
+						{
+							failed.set(true);
+							LOG.debug("Failed to look up '{}'", profileName, exception);
+						}
+					}
+				});
+		}
+		catch(final RuntimeException ex)
+		{
+			failed.set(true);
+			LOG.warn("Failed to look up {}x names", names.size(), ex);
+		}
+		finally
+		{
+			this.lookupCircuitBreaker.onCallFinished(failed.get(), Duration.ofNanos(System.nanoTime() - startNanos));
+		}
+		return found;
+	}
+}
@@ -0,0 +1,90 @@
+package net.litetex.authback.common.players;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.litetex.authback.shared.collections.MaxSizedLinkedHashMap;
+import net.litetex.authback.shared.sync.SynchronizedContainer;
+
+
+/**
+ * Remembers (for a short time) names for which the API confirmed that no player exists.
+ * <p>
+ * This prevents repeated lookups of e.g. typos or crafted names.
+ * The cache is bounded and only kept in memory.
+ * </p>
+ */
+public class NegativeNameLookupCache
+{
+	private final Duration ttl;
+	
+	// Key = lowercase name; Value = expiresAt
+	private final SynchronizedContainer<MaxSizedLinkedHashMap<String, Instant>> nameExpiresAtSC;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	public NegativeNameLookupCache(final Duration ttl, final int maxSize)
+	{
+		this.ttl = ttl;
+		this.nameExpiresAtSC = new SynchronizedContainer<>(new MaxSizedLinkedHashMap<>(Math.max(maxSize, 1)));
+	}
+	
+	/**
+	 * @return <code>true</code> if the name is known to not exist (the lookup can be skipped)
+	 */
+	public boolean isKnownMissing(final String lowerCaseName)
+	{
+		final boolean known = this.nameExpiresAtSC.supplyWithLock(m -> {
+			final Instant expiresAt = m.get(lowerCaseName);
+			if(expiresAt == null)
+			{
+				return false;
+			}
+			if(expiresAt.isBefore(Instant.now()))
+			{
+				m.remove(lowerCaseName);
+				return false;
+			}
+			return true;
+		});
+		(known ? this.hits : this.misses).increment();
+		return known;
+	}
+	
+	public void markMissing(final String lowerCaseName)
+	{
+		final Instant expiresAt = Instant.now().plus(this.ttl);
+		this.nameExpiresAtSC.execWithLock(m -> {
+			// Re-insert so that the entry is the newest one and evicted last
+			m.remove(lowerCaseName);
+			m.put(lowerCaseName, expiresAt);
+		});
+	}
+	
+	public void invalidate(final String lowerCaseName)
+	{
+		this.nameExpiresAtSC.execWithLock(m -> m.remove(lowerCaseName));
+	}
+	
+	public Stats stats()
+	{
+		return new Stats(
+			this.hits.sum(),
+			this.misses.sum(),
+			this.nameExpiresAtSC.supplyWithLock(MaxSizedLinkedHashMap::size));
+	}
+	
+	/**
+	 * @param hits   lookups that were skipped (= saved API calls)
+	 * @param misses lookups that were executed
+	 */
+	public record Stats(
+		long hits,
+		long misses,
+		int size
+	)
+	{
+	}
+}
@@ -27,8 +27,11 @@ import com.mojang.authlib.yggdrasil.response.ProfileAction;
 import com.mojang.util.UndashedUuid;
 
 import net.litetex.authback.common.AuthBackCommon;
+import net.litetex.authback.common.circuitbreaker.CircuitBreaker;
 import net.litetex.authback.common.gameprofile.GameProfileCacheManager;
+import net.litetex.authback.common.gameprofile.ProfileFreshnessPolicy;
 import net.litetex.authback.shared.mixin.log.MixinLogger;
+import net.litetex.authback.shared.sync.SingleFlight;
 
 
 @Mixin(value = YggdrasilMinecraftSessionService.class, remap = false)
@@ -37,6 +40,13 @@ public abstract class YggdrasilMinecraftSessionServiceMixin
 	@Unique
 	private static final Logger LOG = MixinLogger.common("YggdrasilMinecraftSessionServiceMixin");
 	
+	// Concurrent fetches of the same profile share a single request
+	// Separated by requireSecure as the responses differ
+	@Unique
+	private static final SingleFlight<UUID, ProfileResult> SECURE_PROFILE_FETCHES = new SingleFlight<>();
+	@Unique
+	private static final SingleFlight<UUID, ProfileResult> UNSIGNED_PROFILE_FETCHES = new SingleFlight<>();
+	
 	@Final
 	@Shadow
 	private MinecraftClient client;
@@ -61,16 +71,64 @@ public abstract class YggdrasilMinecraftSessionServiceMixin
 		final boolean requireSecure,
 		final CallbackInfoReturnable<ProfileResult> cir)
 	{
+		final ProfileFreshnessPolicy profileFreshnessPolicy = AuthBackCommon.instance().profileFreshnessPolicy();
+		if(profileFreshnessPolicy != null)
+		{
+			final ProfileResult usableProfileResult = profileFreshnessPolicy.findUsable(
+				this.gameProfileCacheManager(),
+				profileId,
+				// Always request signed properties so that the cache is updated
+				id -> this.fetchProfileFromApi(id, true),
+				// Profile actions are not cached - don't drop them silently
+				!AuthBackCommon.instance().config().skipExtractProfileActionTypes().value());
+			if(usableProfileResult != null)
+			{
+				cir.setReturnValue(usableProfileResult);
+				return;
+			}
+		}
+		
+		cir.setReturnValue(this.fetchProfileFromApi(profileId, requireSecure));
+	}
+	
+	@Unique
+	private ProfileResult fetchProfileFromApi(final UUID profileId, final boolean requireSecure)
+	{
+		return (requireSecure ? SECURE_PROFILE_FETCHES : UNSIGNED_PROFILE_FETCHES)
+			.execute(profileId, () -> this.fetchProfileFromApiUncoalesced(profileId, requireSecure));
+	}
+	
+	@Unique
+	private ProfileResult fetchProfileFromApiUncoalesced(final UUID profileId, final boolean requireSecure)
+	{
+		// Build the URL before acquiring the permission - otherwise a failure would never release it
+		final URL url;
 		try
 		{
-			final URL url = HttpAuthenticationService.concatenateURL(
+			url = HttpAuthenticationService.concatenateURL(
 				HttpAuthenticationService.constantURL(
 					this.baseUrl + "profile/" + UndashedUuid.toString(profileId)),
 				"unsigned=" + !requireSecure);
-			
+		}
+		catch(final IllegalArgumentException e)
+		{
+			LOG.warn("Couldn't look up profile properties for {}", profileId, e);
+			return null;
+		}
+		
+		final CircuitBreaker circuitBreaker = AuthBackCommon.instance().circuitBreakers().forUrl(this.baseUrl);
+		if(!circuitBreaker.tryAcquirePermission())
+		{
+			LOG.debug("API is unavailable - trying to use cached profile properties for {}", profileId);
+			return this.findCachedProfileResult(profileId, null);
+		}
+		
+		// Only the request is executed with the permission - its outcome is always reported
+		try
+		{
 			final long startMs = System.currentTimeMillis();
-			final MinecraftProfilePropertiesResponse response =
-				this.client.get(url, MinecraftProfilePropertiesResponse.class);
+			final MinecraftProfilePropertiesResponse response = circuitBreaker.executePermitted(
+				() -> this.client.get(url, MinecraftProfilePropertiesResponse.class));
 			LOG.debug(
 				"Took {}ms to get response for {}",
 				System.currentTimeMillis() - startMs,
@@ -78,39 +136,52 @@ public abstract class YggdrasilMinecraftSessionServiceMixin
 			if(response == null)
 			{
 				LOG.debug("Couldn't fetch profile properties for {} as the profile does not exist", profileId);
-				cir.setReturnValue(null);
-				return;
+				return null;
 			}
 			
 			final GameProfile profile = response.profile();
 			
+			final Set<ProfileActionType> profileActions =
+				extractProfileActionTypes(response.profileActions());
+			
 			if(requireSecure)
 			{
+				final ProfileFreshnessPolicy profileFreshnessPolicy =
+					AuthBackCommon.instance().profileFreshnessPolicy();
+				if(profileFreshnessPolicy != null)
+				{
+					profileFreshnessPolicy.recordProfileActionTypes(profile.id(), profileActions);
+				}
 				this.gameProfileCacheManager().add(profile);
 			}
 			
-			final Set<ProfileActionType> profileActions =
-				extractProfileActionTypes(response.profileActions());
-			
 			LOG.trace("Successfully fetched profile properties for {}", profile);
-			cir.setReturnValue(new ProfileResult(profile, profileActions));
+			return new ProfileResult(profile, profileActions);
 		}
 		catch(final MinecraftClientException | IllegalArgumentException e)
 		{
 			if(e instanceof MinecraftClientException)
 			{
-				final GameProfile cachedProfile = this.gameProfileCacheManager().findByUUID(profileId);
-				if(cachedProfile != null)
-				{
-					LOG.info("Failed to look up profile properties for {} but used cache instead", profileId, e);
-					cir.setReturnValue(new ProfileResult(cachedProfile, Set.of()));
-					return;
-				}
+				return this.findCachedProfileResult(profileId, e);
 			}
 			
 			LOG.warn("Couldn't look up profile properties for {}", profileId, e);
-			cir.setReturnValue(null);
+			return null;
+		}
+	}
+	
+	@Unique
+	private ProfileResult findCachedProfileResult(final UUID profileId, final Exception ex)
+	{
+		final GameProfile cachedProfile = this.gameProfileCacheManager().findByUUID(profileId);
+		if(cachedProfile != null)
+		{
+			LOG.info("Failed to look up profile properties for {} but used cache instead", profileId, ex);
+			return new ProfileResult(cachedProfile, Set.of());
 		}
+		
+		LOG.warn("Couldn't look up profile properties for {}", profileId, ex);
+		return null;
 	}
 	
 	@Unique
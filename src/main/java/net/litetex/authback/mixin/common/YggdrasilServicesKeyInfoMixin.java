@@ -1,8 +1,6 @@
 package net.litetex.authback.mixin.common;
 
 import java.net.URL;
-import java.time.Instant;
-import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.spongepowered.asm.mixin.Mixin;
@@ -15,7 +13,6 @@ import com.mojang.authlib.minecraft.client.MinecraftClient;
 import com.mojang.authlib.yggdrasil.YggdrasilServicesKeyInfo;
 
 import net.litetex.authback.common.AuthBackCommon;
-import net.litetex.authback.common.GlobalPublicKeysCache;
 import net.litetex.authback.shared.mixin.log.MixinLogger;
 
 
@@ -39,54 +36,19 @@ public abstract class YggdrasilServicesKeyInfoMixin
 	{
 		// This tries to reuse the cache public keys when
 		// 1. the upstream server is down or an error was encountered
-		// 2. the keys were recently fetched
+		// 2. the keys were recently fetched (older keys are refreshed in the background)
 		try
 		{
-			final GlobalPublicKeysCache globalPublicKeysCache = AuthBackCommon.instance().publicKeysCache();
-			final Optional<GlobalPublicKeysCache.CachedResponse<T>> optCachedResponse =
-				globalPublicKeysCache.read(url, responseClass);
-			
-			return optCachedResponse
-				.filter(r -> globalPublicKeysCache.optDefaultReuseDuration()
-					.map(Instant.now()::minus)
-					.map(r.createdAt()::isAfter)
-					.orElse(false))
-				.flatMap(GlobalPublicKeysCache.CachedResponse::response)
-				.map(YggdrasilServicesKeyInfoMixin::logUseCachedResponse)
-				.orElseGet(() ->
-				{
-					try
-					{
-						final long startMs = System.currentTimeMillis();
-						final T response = client.get(url, responseClass);
-						LOG.info(
-							"Took {}ms to get response for {}",
-							System.currentTimeMillis() - startMs,
-							url.toString());
-						
-						if(response == null)
-						{
-							LOG.warn("Got empty response from server");
-							
-							return optCachedResponse
-								.flatMap(GlobalPublicKeysCache.CachedResponse::response)
-								.map(YggdrasilServicesKeyInfoMixin::logUseCachedResponse)
-								.orElse(null);
-						}
-						
-						globalPublicKeysCache.saveAsync(url, response);
-						return response;
-					}
-					catch(final MinecraftClientException ex)
-					{
-						LOG.warn("Failed to get public key from servers", ex);
-						
-						return optCachedResponse
-							.flatMap(GlobalPublicKeysCache.CachedResponse::response)
-							.map(YggdrasilServicesKeyInfoMixin::logUseCachedResponse)
-							.orElseThrow(() -> ex);
-					}
-				});
+			return AuthBackCommon.instance().publicKeysCache().get(
+				url,
+				responseClass,
+				() -> AuthBackCommon.instance().circuitBreakers().forUrl(url).execute(
+					() -> client.get(url, responseClass),
+					() -> {
+						throw new MinecraftClientException(
+							MinecraftClientException.ErrorType.SERVICE_UNAVAILABLE,
+							"Circuit breaker for " + url.getHost() + " is open");
+					}));
 		}
 		catch(final Exception ex)
 		{
@@ -94,11 +56,4 @@ public abstract class YggdrasilServicesKeyInfoMixin
 			throw ex;
 		}
 	}
-	
-	@Unique
-	private static <T> T logUseCachedResponse(final T value)
-	{
-		LOG.info("Using cached response");
-		return value;
-	}
 }
@@ -1,5 +1,6 @@
 package net.litetex.authback.mixin.server;
 
+import java.net.InetAddress;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -13,6 +14,9 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import com.llamalad7.mixinextras.injector.wrapoperation.Operation;
 import com.llamalad7.mixinextras.injector.wrapoperation.WrapOperation;
 import com.mojang.authlib.GameProfile;
+import com.mojang.authlib.exceptions.AuthenticationUnavailableException;
+import com.mojang.authlib.minecraft.MinecraftSessionService;
+import com.mojang.authlib.yggdrasil.ProfileResult;
 
 import net.litetex.authback.server.AuthBackServer;
 import net.litetex.authback.shared.mixin.log.MixinLogger;
@@ -29,6 +33,27 @@ public abstract class ServerLoginPacketListenerImplUserAuthenticatorMixin
 	@Accessor("this$0")
 	abstract ServerLoginPacketListenerImpl serverLoginPacketListener();
 	
+	@WrapOperation(
+		method = "run",
+		at = @At(
+			value = "INVOKE",
+			target = "Lcom/mojang/authlib/minecraft/MinecraftSessionService;hasJoinedServer"
+				+ "(Ljava/lang/String;Ljava/lang/String;Ljava/net/InetAddress;)"
+				+ "Lcom/mojang/authlib/yggdrasil/ProfileResult;"
+		)
+	)
+	ProfileResult hasJoinedServer(
+		final MinecraftSessionService instance,
+		final String profileName,
+		final String serverId,
+		final InetAddress address,
+		final Operation<ProfileResult> original) throws AuthenticationUnavailableException
+	{
+		return AuthBackServer.instance().hasJoinedServer(
+			this.serverLoginPacketListener(),
+			() -> original.call(instance, profileName, serverId, address));
+	}
+	
 	@WrapOperation(
 		method = "run",
 		at = @At(
@@ -8,18 +8,23 @@ import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mojang.authlib.GameProfile;
+import com.mojang.authlib.exceptions.AuthenticationUnavailableException;
+import com.mojang.authlib.yggdrasil.ProfileResult;
 
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.litetex.authback.common.AuthBackCommon;
 import net.litetex.authback.common.gameprofile.GameProfileCacheManager;
 import net.litetex.authback.server.command.AuthbackCommand;
 import net.litetex.authback.server.config.AuthBackServerConfig;
+import net.litetex.authback.server.fallbackauth.FallbackAuthExecutor;
 import net.litetex.authback.server.fallbackauth.FallbackAuthRateLimiter;
 import net.litetex.authback.server.fallbackauth.FallbackUserAuthenticationAdapter;
+import net.litetex.authback.server.fallbackauth.HedgedLogin;
 import net.litetex.authback.server.keys.ServerProfilePublicKeysManager;
 import net.litetex.authback.server.network.AuthBackServerNetworking;
 import net.litetex.authback.shared.AuthBack;
@@ -47,6 +52,8 @@ public class AuthBackServer extends AuthBack
 	private final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier;
 	private final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier;
 	private final FallbackUserAuthenticationAdapter fallbackUserAuthenticationAdapter;
+	@Nullable
+	private final HedgedLogin hedgedLogin;
 	
 	// Temporarily marks connections that should not execute an up-to-date check
 	// This is the case when a connection did log in using fallback auth
@@ -63,46 +70,106 @@ public class AuthBackServer extends AuthBack
 			Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
 		
 		final CompletableFuture<ServerProfilePublicKeysManager> cfServerProfilePublicKeysManager =
-			CompletableFuture.supplyAsync(() -> new ServerProfilePublicKeysManager(
-				this.authbackDir.resolve("profiles-public-keys.json"),
-				this.lowLevelConfig.getInteger("keys.max-keys-per-player", 3),
-				// When a player changes their username the name will be unavailable for 37 days
-				Duration.ofDays(this.lowLevelConfig.getInteger("keys.delete-after-unused-days", 36))
-			));
+			AuthBackCommon.instance().startupLoader().load(
+				"profiles-public-keys",
+				() -> new ServerProfilePublicKeysManager(
+					this.authbackDir.resolve("profiles-public-keys.json"),
+					AuthBackCommon.instance().persistFormat(),
+					AuthBackCommon.instance().persistScheduler(),
+					AuthBackCommon.instance().maintenanceScheduler(),
+					this.lowLevelConfig.getInteger("keys.max-keys-per-player", 3),
+					// When a player changes their username the name will be unavailable for 37 days
+					Duration.ofDays(this.lowLevelConfig.getInteger("keys.delete-after-unused-days", 36)),
+					Duration.ofMinutes(this.lowLevelConfig.getInteger("keys.touch-granularity-minutes", 60)),
+					this.createKeysJournalConfig()
+				),
+				ServerProfilePublicKeysManager::profileCount);
 		this.serverProfilePublicKeysManagerSupplier = Suppliers.memoize(cfServerProfilePublicKeysManager::join);
 		this.gameProfileCacheManagerSupplier = AuthBackCommon.instance().gameProfileCacheManagerSupplier();
 		this.fallbackUserAuthenticationAdapter = new FallbackUserAuthenticationAdapter(
 			this.serverProfilePublicKeysManagerSupplier,
 			this.gameProfileCacheManagerSupplier,
-			FallbackAuthRateLimiter.create(this.lowLevelConfig)
+			FallbackAuthRateLimiter.create(this.lowLevelConfig),
+			FallbackAuthExecutor.create(this.lowLevelConfig)
 		);
 		
 		this.config = new AuthBackServerConfig(this.lowLevelConfig);
 		
+		// Hedging requires that fallback auth is also allowed when the session server is available
+		this.hedgedLogin = this.config.alwaysAllowFallbackAuth()
+			? HedgedLogin.create(
+				this.lowLevelConfig,
+				this.serverProfilePublicKeysManagerSupplier,
+				this.gameProfileCacheManagerSupplier)
+			: null;
+		
 		new AuthBackServerNetworking(
 			this.connectionsToSkipUpToDateCheck,
-			this.serverProfilePublicKeysManagerSupplier);
+			this.serverProfilePublicKeysManagerSupplier,
+			Duration.ofHours(this.lowLevelConfig.getInteger("keys.sync.verify-known-key-after-hours", 24)));
 		
 		CommandRegistrationCallback.EVENT.register((dispatcher, buildContext, selection) ->
 			new AuthbackCommand(
 				this.serverProfilePublicKeysManagerSupplier,
-				this.gameProfileCacheManagerSupplier)
+				this.gameProfileCacheManagerSupplier,
+				AuthBackCommon.instance().circuitBreakers(),
+				AuthBackCommon.instance().persistScheduler(),
+				AuthBackCommon.instance().maintenanceScheduler(),
+				AuthBackCommon.instance().startupLoader(),
+				this.hedgedLogin)
 				.register(dispatcher));
 		
 		LOG.debug("Initialized");
 	}
 	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private ServerProfilePublicKeysManager.JournalConfig createKeysJournalConfig()
+	{
+		final String prefix = "keys.journal.";
+		if(!this.lowLevelConfig.getBoolean(prefix + "enabled", false))
+		{
+			return null;
+		}
+		
+		return new ServerProfilePublicKeysManager.JournalConfig(
+			1024L * this.lowLevelConfig.getInteger(prefix + "compact-after-kb", 1024),
+			Duration.ofMinutes(this.lowLevelConfig.getInteger(prefix + "compact-after-minutes", 360)));
+	}
+	
 	public void handleJoinSuccess(final GameProfile profile)
 	{
 		this.gameProfileCacheManagerSupplier.get().add(profile);
 	}
 	
+	public ProfileResult hasJoinedServer(
+		final ServerLoginPacketListenerImpl loginPacketListener,
+		final Supplier<ProfileResult> hasJoinedServer) throws AuthenticationUnavailableException
+	{
+		if(this.hedgedLogin == null)
+		{
+			return hasJoinedServer.get();
+		}
+		// Only mark the connection when the result of the fallback auth is actually used
+		return this.hedgedLogin.hasJoinedServer(
+			loginPacketListener,
+			hasJoinedServer::get,
+			this.fallbackUserAuthenticationAdapter::doFallbackAuth,
+			() -> this.connectionsToSkipUpToDateCheck.add(loginPacketListener.connection));
+	}
+	
 	public void doFallbackAuth(
 		final ServerLoginPacketListenerImpl loginPacketListener,
 		final Runnable defaultAction,
 		final Consumer<String> customDisconnectAction,
 		final Consumer<GameProfile> successAction)
 	{
+		if(this.hedgedLogin != null && this.hedgedLogin.hasHedgeFailed(loginPacketListener.connection))
+		{
+			LOG.debug("Hedged fallback auth already failed for username={}", loginPacketListener.requestedUsername);
+			defaultAction.run();
+			return;
+		}
+		
 		this.fallbackUserAuthenticationAdapter.doFallbackAuth(
 			loginPacketListener,
 			defaultAction,
@@ -1,16 +1,19 @@
 package net.litetex.authback.server.command;
 
+import java.nio.file.Path;
 import java.security.PublicKey;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,10 +26,17 @@ import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 
+import net.litetex.authback.common.circuitbreaker.CircuitBreaker;
+import net.litetex.authback.common.circuitbreaker.CircuitBreakers;
 import net.litetex.authback.common.gameprofile.GameProfileCacheManager;
+import net.litetex.authback.common.players.AuthbackCachedUserNameToIdResolver;
+import net.litetex.authback.server.fallbackauth.HedgedLogin;
 import net.litetex.authback.server.keys.ServerProfilePublicKeysManager;
 import net.litetex.authback.shared.crypto.Ed25519KeyDecoder;
 import net.litetex.authback.shared.external.org.apache.commons.codec.binary.Hex;
+import net.litetex.authback.shared.io.PersistScheduler;
+import net.litetex.authback.shared.io.StartupLoader;
+import net.litetex.authback.shared.maintenance.MaintenanceScheduler;
 import net.minecraft.ChatFormatting;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
@@ -51,13 +61,29 @@ public class AuthbackCommand
 	
 	private final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier;
 	private final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier;
+	private final CircuitBreakers circuitBreakers;
+	private final PersistScheduler persistScheduler;
+	private final MaintenanceScheduler maintenanceScheduler;
+	private final StartupLoader startupLoader;
+	@Nullable
+	private final HedgedLogin hedgedLogin;
 	
 	public AuthbackCommand(
 		final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier,
-		final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier)
+		final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier,
+		final CircuitBreakers circuitBreakers,
+		final PersistScheduler persistScheduler,
+		final MaintenanceScheduler maintenanceScheduler,
+		final StartupLoader startupLoader,
+		@Nullable final HedgedLogin hedgedLogin)
 	{
 		this.serverProfilePublicKeysManagerSupplier = serverProfilePublicKeysManagerSupplier;
 		this.gameProfileCacheManagerSupplier = gameProfileCacheManagerSupplier;
+		this.circuitBreakers = circuitBreakers;
+		this.persistScheduler = persistScheduler;
+		this.maintenanceScheduler = maintenanceScheduler;
+		this.startupLoader = startupLoader;
+		this.hedgedLogin = hedgedLogin;
 	}
 	
 	private ServerProfilePublicKeysManager serverProfilePublicKeysManager()
@@ -78,9 +104,160 @@ public class AuthbackCommand
 				.then(this.registerRemove())
 				.then(this.registerList())
 			)
+			.then(this.registerStorage())
+			.then(this.registerFallbackAuth())
+			.then(this.registerApiStatus())
 		);
 	}
 	
+	// region Storage
+	
+	private LiteralArgumentBuilder<CommandSourceStack> registerStorage()
+	{
+		return Commands.literal("storage")
+			.requires(permissionAdmin())
+			.then(Commands.literal("export_json")
+				.executes(this::execStorageExportJson))
+			.then(Commands.literal("persist_status")
+				.executes(this::execStoragePersistStatus))
+			.then(Commands.literal("maintenance_status")
+				.executes(this::execStorageMaintenanceStatus))
+			.then(Commands.literal("startup_status")
+				.executes(this::execStorageStartupStatus));
+	}
+	
+	private int execStorageExportJson(final CommandContext<CommandSourceStack> ctx)
+	{
+		final List<Path> exportedFiles = Stream.of(
+				this.serverProfilePublicKeysManager().exportJson(),
+				this.gameProfileCacheManager().exportJson())
+			.toList();
+		if(exportedFiles.contains(null))
+		{
+			ctx.getSource().sendFailure(Component.literal("Failed to export some files - check the log for details"));
+		}
+		
+		final MutableComponent root = Component.literal("Exported human-readable JSON:");
+		exportedFiles.stream()
+			.filter(Objects::nonNull)
+			.forEach(p -> root.append("\n- ").append(Component.literal(p.toString())
+				.withStyle(style -> style.withClickEvent(new ClickEvent.CopyToClipboard(p.toString())))));
+		ctx.getSource().sendSuccess(() -> root, false);
+		return exportedFiles.contains(null) ? 0 : 1;
+	}
+	
+	private int execStoragePersistStatus(final CommandContext<CommandSourceStack> ctx)
+	{
+		final MutableComponent root = Component.empty()
+			.append(Component.literal("Saves of caches/stores since startup")
+				.withStyle(style -> style.withItalic(true)
+					.withColor(ChatFormatting.GRAY)))
+			.append("\n- Requested: " + this.persistScheduler.requestedSaves())
+			.append("\n- Executed: " + this.persistScheduler.executedSaves())
+			.append("\n- Coalesced (avoided): " + this.persistScheduler.coalescedSaves());
+		ctx.getSource().sendSuccess(() -> root, false);
+		return 1;
+	}
+	
+	private int execStorageMaintenanceStatus(final CommandContext<CommandSourceStack> ctx)
+	{
+		final List<MaintenanceScheduler.Task.Status> statuses = this.maintenanceScheduler.statuses();
+		final MutableComponent root = Component.empty()
+			.append(Component.literal("Background maintenance of " + statuses.size() + " store(s)")
+				.withStyle(style -> style.withItalic(true)
+					.withColor(ChatFormatting.GRAY)));
+		statuses.forEach(status -> root.append("\n- " + status.name() + ": " + (status.lastRunAt() != null
+			? status.runs() + " run(s), last at " + INSTANT_BASIC_DATE_TIME.format(status.lastRunAt())
+			+ " took " + status.lastDurationMs() + "ms and processed " + status.lastProcessedItems() + " item(s)"
+			+ ", processed " + status.totalProcessedItems() + " item(s) in total"
+			: "not executed yet")));
+		ctx.getSource().sendSuccess(() -> root, false);
+		return 1;
+	}
+	
+	private int execStorageStartupStatus(final CommandContext<CommandSourceStack> ctx)
+	{
+		final List<StartupLoader.Status> statuses = this.startupLoader.statuses();
+		final MutableComponent root = Component.empty()
+			.append(Component.literal("Loaded " + statuses.size() + " store(s) at startup")
+				.withStyle(style -> style.withItalic(true)
+					.withColor(ChatFormatting.GRAY)));
+		statuses.forEach(status -> root.append("\n- " + status.name() + ": "
+			+ status.entries() + " entries in " + status.durationMs() + "ms"));
+		ctx.getSource().sendSuccess(() -> root, false);
+		return 1;
+	}
+	
+	// endregion
+	// region Fallback auth
+	
+	private LiteralArgumentBuilder<CommandSourceStack> registerFallbackAuth()
+	{
+		return Commands.literal("fallback_auth")
+			.requires(permissionAdmin())
+			.then(Commands.literal("hedge_stats")
+				.executes(this::execFallbackAuthHedgeStats));
+	}
+	
+	private int execFallbackAuthHedgeStats(final CommandContext<CommandSourceStack> ctx)
+	{
+		if(this.hedgedLogin == null)
+		{
+			ctx.getSource().sendFailure(Component.literal("Hedged login is disabled"));
+			return 0;
+		}
+		
+		final MutableComponent root = Component.literal("Login latencies (most recent logins):")
+			.append("\n- Players without known keys (never hedged): " + this.hedgedLogin.unknownPlayerLatencies())
+			.append("\n- Session server answered within the hedge delay: "
+				+ this.hedgedLogin.withoutHedgeLatencies())
+			.append("\n- Hedged (session server was slower than the hedge delay): "
+				+ this.hedgedLogin.withHedgeLatencies());
+		ctx.getSource().sendSuccess(() -> root, false);
+		return 1;
+	}
+	
+	// endregion
+	// region API status
+	
+	private LiteralArgumentBuilder<CommandSourceStack> registerApiStatus()
+	{
+		return Commands.literal("api_status")
+			.requires(permissionAdmin())
+			.executes(this::execApiStatus);
+	}
+	
+	private int execApiStatus(final CommandContext<CommandSourceStack> ctx)
+	{
+		final List<CircuitBreaker.Status> statuses = this.circuitBreakers.statuses();
+		final MutableComponent root = Component.empty()
+			.append(Component.literal("Circuit breakers of " + statuses.size() + " API host(s)")
+				.withStyle(style -> style.withItalic(true)
+					.withColor(ChatFormatting.GRAY)));
+		statuses.forEach(status -> root.append("\n").append(Component.empty()
+			.append("- " + status.name() + ": ")
+			.append(Component.literal(status.state().name())
+				.withStyle(status.state() == CircuitBreaker.State.CLOSED
+					? ChatFormatting.GREEN
+					: ChatFormatting.RED))
+			.append(" since " + INSTANT_BASIC_DATE_TIME.format(status.since())
+				+ ", recent failures " + status.recentFailures() + "/" + status.recentCalls()
+				+ ", rejected calls " + status.rejectedCalls())));
+		
+		if(ctx.getSource().getServer().services().nameToIdCache() instanceof final AuthbackCachedUserNameToIdResolver r)
+		{
+			root.append("\nName lookups that shared an in-flight request: " + r.coalescedNameLookups());
+			r.negativeNameLookupStats().ifPresent(stats -> root.append("\n").append(Component.literal(
+				"Unknown names: " + stats.size() + " cached, "
+					+ stats.hits() + " lookups skipped, "
+					+ stats.misses() + " lookups executed")));
+		}
+		ctx.getSource().sendSuccess(() -> root, false);
+		return 1;
+	}
+	
+	// endregion
+	
 	private LiteralArgumentBuilder<CommandSourceStack> registerAdd()
 	{
 		return Commands.literal("add")
@@ -0,0 +1,126 @@
+package net.litetex.authback.server.fallbackauth;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import net.litetex.authback.shared.config.Configuration;
+
+
+/**
+ * Executes the potentially blocking stages of fallback authentications (e.g. profile resolution) on virtual threads,
+ * so that neither the network thread nor the login authenticator thread is blocked.
+ * <p>
+ * The amount of concurrent (in-flight) fallback authentications is limited
+ * and every stage is cancelled once its timeout is exceeded.
+ * </p>
+ */
+public class FallbackAuthExecutor
+{
+	private final ExecutorService executor;
+	private final int maxConcurrent;
+	private final Semaphore permits;
+	
+	private final Duration profileResolutionTimeout;
+	private final Duration clientResponseTimeout;
+	private final Duration verificationTimeout;
+	
+	FallbackAuthExecutor(
+		final int maxConcurrent,
+		final Duration profileResolutionTimeout,
+		final Duration clientResponseTimeout,
+		final Duration verificationTimeout)
+	{
+		this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+			.name("AuthBack-FallbackAuth-", 0)
+			.factory());
+		this.maxConcurrent = maxConcurrent > 0 ? maxConcurrent : Integer.MAX_VALUE;
+		this.permits = new Semaphore(this.maxConcurrent);
+		
+		this.profileResolutionTimeout = profileResolutionTimeout;
+		this.clientResponseTimeout = clientResponseTimeout;
+		this.verificationTimeout = verificationTimeout;
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public static FallbackAuthExecutor create(final Configuration config)
+	{
+		final String prefix = "fallback-auth.";
+		final String timeoutPrefix = prefix + "timeouts.";
+		return new FallbackAuthExecutor(
+			config.getInteger(prefix + "max-concurrent", 32),
+			Duration.ofMillis(config.getInteger(timeoutPrefix + "profile-resolution-ms", 5000)),
+			Duration.ofMillis(config.getInteger(timeoutPrefix + "client-response-ms", 10000)),
+			Duration.ofMillis(config.getInteger(timeoutPrefix + "verification-ms", 2000)));
+	}
+	
+	boolean tryAcquire()
+	{
+		return this.permits.tryAcquire();
+	}
+	
+	void release()
+	{
+		this.permits.release();
+	}
+	
+	public int inFlight()
+	{
+		return this.maxConcurrent - this.permits.availablePermits();
+	}
+	
+	/**
+	 * Executes the stage asynchronously. If the timeout is exceeded the returned future completes with a
+	 * {@link TimeoutException} and the stage is interrupted.
+	 */
+	<T> CompletableFuture<T> supplyAsync(final Supplier<T> stage, final Duration timeout)
+	{
+		final CompletableFuture<T> cf = new CompletableFuture<>();
+		try
+		{
+			final Future<?> future = this.executor.submit(() -> {
+				try
+				{
+					cf.complete(stage.get());
+				}
+				catch(final Exception ex)
+				{
+					cf.completeExceptionally(ex);
+				}
+			});
+			cf.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+				.whenComplete((ignored, ex) -> {
+					if(ex instanceof TimeoutException)
+					{
+						future.cancel(true);
+					}
+				});
+		}
+		catch(final Exception ex)
+		{
+			cf.completeExceptionally(ex);
+		}
+		return cf;
+	}
+	
+	Duration profileResolutionTimeout()
+	{
+		return this.profileResolutionTimeout;
+	}
+	
+	Duration clientResponseTimeout()
+	{
+		return this.clientResponseTimeout;
+	}
+	
+	Duration verificationTimeout()
+	{
+		return this.verificationTimeout;
+	}
+}
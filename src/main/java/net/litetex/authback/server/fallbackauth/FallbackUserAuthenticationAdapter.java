@@ -4,6 +4,12 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.security.PublicKey;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -34,15 +40,18 @@ public class FallbackUserAuthenticationAdapter
 	private final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier;
 	@Nullable
 	private final FallbackAuthRateLimiter rateLimiter;
+	private final FallbackAuthExecutor executor;
 	
 	public FallbackUserAuthenticationAdapter(
 		final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier,
 		final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier,
-		@Nullable final FallbackAuthRateLimiter rateLimiter)
+		@Nullable final FallbackAuthRateLimiter rateLimiter,
+		final FallbackAuthExecutor executor)
 	{
 		this.serverProfilePublicKeysManagerSupplier = serverProfilePublicKeysManagerSupplier;
 		this.gameProfileCacheManagerSupplier = gameProfileCacheManagerSupplier;
 		this.rateLimiter = rateLimiter;
+		this.executor = executor;
 	}
 	
 	private ServerProfilePublicKeysManager serverProfilePublicKeysManager()
@@ -55,30 +64,43 @@ public class FallbackUserAuthenticationAdapter
 		return this.gameProfileCacheManagerSupplier.get();
 	}
 	
-	public void doFallbackAuth(
+	/**
+	 * @return cancels the fallback auth (no action is executed afterwards and no further challenge is sent)
+	 */
+	public Runnable doFallbackAuth(
 		final ServerLoginPacketListenerImpl loginPacketListener,
 		final Runnable defaultAction,
 		final Consumer<String> customDisconnectAction,
 		final Consumer<GameProfile> successAction)
 	{
+		if(!this.executor.tryAcquire())
+		{
+			LOG.warn(
+				"Rejecting fallback auth for username={} - too many concurrent fallback auths",
+				loginPacketListener.requestedUsername);
+			customDisconnectAction.accept("Too many concurrent requests");
+			return () -> {
+			};
+		}
+		
+		final Attempt attempt = new Attempt(defaultAction, customDisconnectAction, successAction);
 		try
 		{
-			this.handleFallbackAuthS2C(loginPacketListener, defaultAction, customDisconnectAction, successAction);
+			this.handleFallbackAuthS2C(loginPacketListener, attempt);
 		}
 		catch(final Exception ex)
 		{
 			LOG.error("Unexpected error during fallback auth S2C process", ex);
-			customDisconnectAction.accept("Internal fallback error");
+			attempt.disconnect("Internal fallback error");
 		}
+		return attempt::cancel;
 	}
 	
 	private void handleFallbackAuthS2C(
 		final ServerLoginPacketListenerImpl loginPacketListener,
-		final Runnable defaultAction,
-		final Consumer<String> customDisconnectAction,
-		final Consumer<GameProfile> successAction)
+		final Attempt attempt)
 	{
-		if(this.rateLimitExceeded(loginPacketListener, defaultAction, customDisconnectAction))
+		if(this.rateLimitExceeded(loginPacketListener, attempt))
 		{
 			return;
 		}
@@ -88,29 +110,94 @@ public class FallbackUserAuthenticationAdapter
 		if(requestedUsername == null || requestedUsername.isEmpty() || !StringUtil.isValidPlayerName(requestedUsername))
 		{
 			LOG.info("Aborting due to invalid username={}", requestedUsername);
-			defaultAction.run();
+			attempt.fallbackToDefault();
 			return;
 		}
 		
+		// Stage 1: Resolve the profile (might require a blocking HTTP request) and check if it has any keys
+		this.executor.supplyAsync(
+				() -> this.getGameProfileWithKeyFor(loginPacketListener, requestedUsername),
+				this.executor.profileResolutionTimeout())
+			.whenComplete((gameProfile, ex) -> {
+				if(ex != null)
+				{
+					this.handleStageFailure(attempt, "profile resolution", ex);
+					return;
+				}
+				if(gameProfile == null)
+				{
+					attempt.fallbackToDefault();
+					return;
+				}
+				if(attempt.isFinished())
+				{
+					// Cancelled in the meantime - don't send a challenge that would delay the login
+					return;
+				}
+				
+				try
+				{
+					this.sendChallenge(loginPacketListener, attempt, gameProfile);
+				}
+				catch(final Exception ex2)
+				{
+					LOG.error("Unexpected error during fallback auth S2C process", ex2);
+					attempt.disconnect("Internal fallback error");
+				}
+			});
+	}
+	
+	private GameProfile getGameProfileWithKeyFor(
+		final ServerLoginPacketListenerImpl loginPacketListener,
+		final String requestedUsername)
+	{
 		final GameProfile gameProfile = this.getGameProfileFor(loginPacketListener, requestedUsername);
 		if(gameProfile == null)
 		{
 			LOG.info("Unable to find matching profile for username={}", requestedUsername);
-			defaultAction.run();
-			return;
+			return null;
 		}
 		if(!this.serverProfilePublicKeysManager().hasAnyKeyQuickCheck(gameProfile.id()))
 		{
 			LOG.info("No public key for {}", gameProfile.id());
-			defaultAction.run();
-			return;
+			return null;
 		}
-		
+		return gameProfile;
+	}
+	
+	private void sendChallenge(
+		final ServerLoginPacketListenerImpl loginPacketListener,
+		final Attempt attempt,
+		final GameProfile gameProfile)
+	{
 		final byte[] challenge = SecureRandomByteArrayCreator.create(4);
 		
 		final FriendlyByteBuf requestBuf = new FriendlyByteBuf(Unpooled.buffer());
 		requestBuf.writeByteArray(challenge);
 		
+		// Stage 2: Wait for the response of the client
+		final CompletableFuture<FallbackAuthResponse> responseCF = new CompletableFuture<>();
+		responseCF.orTimeout(this.executor.clientResponseTimeout().toMillis(), TimeUnit.MILLISECONDS)
+			// Stage 3: Verify the response
+			.thenCompose(response -> this.executor.supplyAsync(
+				() -> this.isValidResponse(gameProfile, challenge, response),
+				this.executor.verificationTimeout()))
+			.whenComplete((errorMessage, ex) -> {
+				if(ex != null)
+				{
+					this.handleStageFailure(attempt, "client response/verification", ex);
+				}
+				else if(errorMessage != null)
+				{
+					attempt.disconnect(errorMessage);
+				}
+				else
+				{
+					attempt.succeed(gameProfile);
+				}
+			});
+		
+		// Only receive the packet on the network thread - everything else is done asynchronously
 		ServerLoginNetworking.registerReceiver(
 			loginPacketListener,
 			ChannelNames.FALLBACK_AUTH,
@@ -118,18 +205,18 @@ public class FallbackUserAuthenticationAdapter
 				if(!understood)
 				{
 					LOG.info("Client[id={}] did not understand fallback auth - disconnecting", gameProfile.id());
-					defaultAction.run();
+					attempt.fallbackToDefault();
+					responseCF.cancel(false);
 					return;
 				}
 				
 				try
 				{
-					this.handleFallbackAuthC2S(customDisconnectAction, successAction, buf, gameProfile, challenge);
+					responseCF.complete(new FallbackAuthResponse(buf.readByteArray(), buf.readByteArray()));
 				}
 				catch(final Exception ex)
 				{
-					LOG.error("Unexpected error during fallback auth C2S process", ex);
-					customDisconnectAction.accept("Internal fallback error");
+					responseCF.completeExceptionally(ex);
 				}
 			});
 		
@@ -137,6 +224,27 @@ public class FallbackUserAuthenticationAdapter
 			.sendPacket(ChannelNames.FALLBACK_AUTH, requestBuf);
 	}
 	
+	private void handleStageFailure(final Attempt attempt, final String stage, final Throwable throwable)
+	{
+		final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+			? throwable.getCause()
+			: throwable;
+		if(cause instanceof TimeoutException)
+		{
+			LOG.warn("Fallback auth timed out during {}", stage);
+			attempt.disconnect("Timed out");
+			return;
+		}
+		if(cause instanceof CancellationException)
+		{
+			// Already handled
+			return;
+		}
+		
+		LOG.error("Unexpected error during fallback auth {}", stage, cause);
+		attempt.disconnect("Internal fallback error");
+	}
+	
 	private GameProfile getGameProfileFor(
 		final ServerLoginPacketListenerImpl loginPacketListener,
 		final String requestedUsername)
@@ -166,8 +274,7 @@ public class FallbackUserAuthenticationAdapter
 	
 	private boolean rateLimitExceeded(
 		final ServerLoginPacketListenerImpl loginPacketListener,
-		final Runnable defaultAction,
-		final Consumer<String> customDisconnectAction)
+		final Attempt attempt)
 	{
 		if(this.rateLimiter == null)
 		{
@@ -179,7 +286,7 @@ public class FallbackUserAuthenticationAdapter
 		if(!(remoteSocketAddress instanceof final InetSocketAddress inetSocketAddr))
 		{
 			LOG.warn("Failed handle type of remoteAddress {}", remoteSocketAddress);
-			defaultAction.run();
+			attempt.fallbackToDefault();
 			return true;
 		}
 		
@@ -187,35 +294,105 @@ public class FallbackUserAuthenticationAdapter
 		if(this.rateLimiter.isAddressRateLimited(address))
 		{
 			LOG.debug("Address exceeded rate limit: {}", address);
-			customDisconnectAction.accept("Too many requests");
+			attempt.disconnect("Too many requests");
 			return true;
 		}
 		return false;
 	}
 	
-	private void handleFallbackAuthC2S(
-		final Consumer<String> customDisconnectAction,
-		final Consumer<GameProfile> successAction,
-		final FriendlyByteBuf buf,
+	/**
+	 * @return <code>null</code> if the response is valid otherwise an error message
+	 */
+	private String isValidResponse(
 		final GameProfile gameProfile,
-		final byte[] challenge)
+		final byte[] challenge,
+		final FallbackAuthResponse response)
 	{
-		final byte[] signature = buf.readByteArray();
-		final byte[] publicKeyEncoded = buf.readByteArray();
-		
 		final PublicKey publicKey =
-			this.serverProfilePublicKeysManager().find(gameProfile.id(), publicKeyEncoded);
+			this.serverProfilePublicKeysManager().find(gameProfile.id(), response.publicKeyEncoded());
 		if(publicKey == null)
 		{
-			customDisconnectAction.accept("Received invalid public key");
-			return;
+			return "Received invalid public key";
 		}
 		
-		if(!Ed25519Signature.isValidSignature(challenge, signature, publicKey))
+		if(!Ed25519Signature.isValidSignature(challenge, response.signature(), publicKey))
 		{
-			customDisconnectAction.accept("Received invalid signature");
-			return;
+			return "Received invalid signature";
+		}
+		return null;
+	}
+	
+	record FallbackAuthResponse(
+		byte[] signature,
+		byte[] publicKeyEncoded
+	)
+	{
+	}
+	
+	
+	/**
+	 * A single fallback auth. Ensures that exactly one outcome is executed and that the permit is released.
+	 */
+	private final class Attempt
+	{
+		private final AtomicBoolean finished = new AtomicBoolean();
+		
+		private final Runnable defaultAction;
+		private final Consumer<String> customDisconnectAction;
+		private final Consumer<GameProfile> successAction;
+		
+		Attempt(
+			final Runnable defaultAction,
+			final Consumer<String> customDisconnectAction,
+			final Consumer<GameProfile> successAction)
+		{
+			this.defaultAction = defaultAction;
+			this.customDisconnectAction = customDisconnectAction;
+			this.successAction = successAction;
+		}
+		
+		private boolean finish()
+		{
+			if(!this.finished.compareAndSet(false, true))
+			{
+				return false;
+			}
+			FallbackUserAuthenticationAdapter.this.executor.release();
+			return true;
+		}
+		
+		void fallbackToDefault()
+		{
+			if(this.finish())
+			{
+				this.defaultAction.run();
+			}
+		}
+		
+		void disconnect(final String message)
+		{
+			if(this.finish())
+			{
+				this.customDisconnectAction.accept(message);
+			}
+		}
+		
+		void succeed(final GameProfile gameProfile)
+		{
+			if(this.finish())
+			{
+				this.successAction.accept(gameProfile);
+			}
+		}
+		
+		void cancel()
+		{
+			this.finish();
+		}
+		
+		boolean isFinished()
+		{
+			return this.finished.get();
 		}
-		successAction.accept(gameProfile);
 	}
 }
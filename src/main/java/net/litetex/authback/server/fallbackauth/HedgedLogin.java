@@ -0,0 +1,321 @@
+package net.litetex.authback.server.fallbackauth;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mojang.authlib.GameProfile;
+import com.mojang.authlib.exceptions.AuthenticationUnavailableException;
+import com.mojang.authlib.yggdrasil.ProfileResult;
+
+import net.litetex.authback.common.gameprofile.GameProfileCacheManager;
+import net.litetex.authback.server.keys.ServerProfilePublicKeysManager;
+import net.litetex.authback.shared.config.Configuration;
+import net.minecraft.network.Connection;
+import net.minecraft.server.network.ServerLoginPacketListenerImpl;
+
+
+/**
+ * Hedges the (vanilla) <code>hasJoinedServer</code> call for players with known keys.
+ * <p>
+ * If the session server doesn't answer within the hedge delay, fallback auth is started in parallel
+ * and the first successful result wins.
+ * This prevents that a degraded (but not completely unavailable) session server delays logins until
+ * the HTTP request eventually times out.
+ * </p>
+ */
+public class HedgedLogin
+{
+	private static final Logger LOG = LoggerFactory.getLogger(HedgedLogin.class);
+	
+	private final Duration hedgeDelay;
+	private final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier;
+	private final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier;
+	
+	private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+		.name("AuthBack-HedgedLogin-", 0)
+		.factory());
+	
+	// Connections where the hedged fallback auth already failed - it should not be executed again
+	private final Set<Connection> connectionsWithFailedHedge =
+		Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+	
+	// Players without known keys are never hedged
+	private final LatencySamples unknownPlayerLatencies = new LatencySamples();
+	// Players with known keys for which the session server answered within the hedge delay
+	private final LatencySamples withoutHedgeLatencies = new LatencySamples();
+	// Players with known keys for which the session server didn't answer within the hedge delay
+	private final LatencySamples withHedgeLatencies = new LatencySamples();
+	
+	HedgedLogin(
+		final Duration hedgeDelay,
+		final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier,
+		final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier)
+	{
+		this.hedgeDelay = hedgeDelay;
+		this.serverProfilePublicKeysManagerSupplier = serverProfilePublicKeysManagerSupplier;
+		this.gameProfileCacheManagerSupplier = gameProfileCacheManagerSupplier;
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	@Nullable
+	public static HedgedLogin create(
+		final Configuration config,
+		final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier,
+		final Supplier<GameProfileCacheManager> gameProfileCacheManagerSupplier)
+	{
+		final String prefix = "fallback-auth.hedge.";
+		if(!config.getBoolean(prefix + "enabled", false))
+		{
+			return null;
+		}
+		return new HedgedLogin(
+			Duration.ofMillis(Math.max(config.getInteger(prefix + "delay-ms", 1500), 0)),
+			serverProfilePublicKeysManagerSupplier,
+			gameProfileCacheManagerSupplier);
+	}
+	
+	/**
+	 * @param hasJoinedServer      the original (blocking) session server call
+	 * @param fallbackAuthStarter  starts the fallback auth
+	 * @param fallbackAuthUsedAction executed when the result of the fallback auth is used
+	 */
+	public ProfileResult hasJoinedServer(
+		final ServerLoginPacketListenerImpl loginPacketListener,
+		final Callable<ProfileResult> hasJoinedServer,
+		final FallbackAuthStarter fallbackAuthStarter,
+		final Runnable fallbackAuthUsedAction) throws AuthenticationUnavailableException
+	{
+		final long startNanos = System.nanoTime();
+		if(!this.isKnownPlayer(loginPacketListener.requestedUsername))
+		{
+			try
+			{
+				return call(hasJoinedServer);
+			}
+			finally
+			{
+				this.unknownPlayerLatencies.record(System.nanoTime() - startNanos);
+			}
+		}
+		
+		final CompletableFuture<ProfileResult> hasJoinedCF =
+			CompletableFuture.supplyAsync(() -> {
+				try
+				{
+					return call(hasJoinedServer);
+				}
+				catch(final AuthenticationUnavailableException ex)
+				{
+					throw new CompletionException(ex);
+				}
+			}, this.executor);
+		try
+		{
+			final ProfileResult result = hasJoinedCF.get(this.hedgeDelay.toMillis(), TimeUnit.MILLISECONDS);
+			this.withoutHedgeLatencies.record(System.nanoTime() - startNanos);
+			return result;
+		}
+		catch(final TimeoutException ignored)
+		{
+			// Continue with hedging
+		}
+		catch(final ExecutionException ex)
+		{
+			this.withoutHedgeLatencies.record(System.nanoTime() - startNanos);
+			throw rethrow(ex.getCause());
+		}
+		catch(final InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			hasJoinedCF.cancel(true);
+			throw new AuthenticationUnavailableException(ex);
+		}
+		
+		try
+		{
+			return this.hedge(loginPacketListener, hasJoinedCF, fallbackAuthStarter, fallbackAuthUsedAction);
+		}
+		finally
+		{
+			this.withHedgeLatencies.record(System.nanoTime() - startNanos);
+		}
+	}
+	
+	private ProfileResult hedge(
+		final ServerLoginPacketListenerImpl loginPacketListener,
+		final CompletableFuture<ProfileResult> hasJoinedCF,
+		final FallbackAuthStarter fallbackAuthStarter,
+		final Runnable fallbackAuthUsedAction) throws AuthenticationUnavailableException
+	{
+		LOG.debug(
+			"Session server didn't answer within {}ms for username={} - starting hedged fallback auth",
+			this.hedgeDelay.toMillis(),
+			loginPacketListener.requestedUsername);
+		
+		// Completes with null when the fallback auth failed
+		final CompletableFuture<GameProfile> fallbackAuthCF = new CompletableFuture<>();
+		final Runnable cancelFallbackAuth = fallbackAuthStarter.start(
+			loginPacketListener,
+			() -> fallbackAuthCF.complete(null),
+			msg -> {
+				LOG.debug("Hedged fallback auth failed: {}", msg);
+				fallbackAuthCF.complete(null);
+			},
+			fallbackAuthCF::complete);
+		
+		// The first successful result wins
+		// If both fail the result of the session server is used
+		final CompletableFuture<ProfileResult> winnerCF = new CompletableFuture<>();
+		final Runnable decide = () -> {
+			final ProfileResult hasJoinedResult = hasJoinedCF.isDone() && !hasJoinedCF.isCompletedExceptionally()
+				? hasJoinedCF.join()
+				: null;
+			if(hasJoinedResult != null)
+			{
+				// The fallback auth is no longer needed - don't let it delay the login
+				cancelFallbackAuth.run();
+				winnerCF.complete(hasJoinedResult);
+				return;
+			}
+			
+			final GameProfile fallbackAuthProfile = fallbackAuthCF.getNow(null);
+			if(fallbackAuthProfile != null
+				&& winnerCF.complete(new ProfileResult(fallbackAuthProfile, Set.of())))
+			{
+				LOG.debug("Hedged fallback auth won for {}", fallbackAuthProfile.id());
+				fallbackAuthUsedAction.run();
+				return;
+			}
+			
+			if(hasJoinedCF.isDone() && fallbackAuthCF.isDone())
+			{
+				hasJoinedCF.whenComplete((result, ex) -> {
+					if(ex != null)
+					{
+						winnerCF.completeExceptionally(ex);
+					}
+					else
+					{
+						winnerCF.complete(result);
+					}
+				});
+			}
+		};
+		hasJoinedCF.whenComplete((ignored, ignored2) -> decide.run());
+		fallbackAuthCF.whenComplete((ignored, ignored2) -> decide.run());
+		
+		final ProfileResult result;
+		try
+		{
+			result = winnerCF.join();
+		}
+		catch(final CompletionException ex)
+		{
+			this.connectionsWithFailedHedge.add(loginPacketListener.connection);
+			throw rethrow(ex.getCause());
+		}
+		
+		if(result == null)
+		{
+			this.connectionsWithFailedHedge.add(loginPacketListener.connection);
+		}
+		return result;
+	}
+	
+	private boolean isKnownPlayer(@Nullable final String requestedUsername)
+	{
+		if(requestedUsername == null)
+		{
+			return false;
+		}
+		
+		// Only use the cache here - no blocking requests
+		final GameProfile profile = this.gameProfileCacheManagerSupplier.get().findByName(requestedUsername);
+		return profile != null && this.serverProfilePublicKeysManagerSupplier.get().hasAnyKeyQuickCheck(profile.id());
+	}
+	
+	/**
+	 * @return if a hedged fallback auth was already executed (and failed) for the connection
+	 */
+	public boolean hasHedgeFailed(final Connection connection)
+	{
+		return this.connectionsWithFailedHedge.remove(connection);
+	}
+	
+	public LatencySamples.Snapshot unknownPlayerLatencies()
+	{
+		return this.unknownPlayerLatencies.snapshot();
+	}
+	
+	public LatencySamples.Snapshot withoutHedgeLatencies()
+	{
+		return this.withoutHedgeLatencies.snapshot();
+	}
+	
+	public LatencySamples.Snapshot withHedgeLatencies()
+	{
+		return this.withHedgeLatencies.snapshot();
+	}
+	
+	private static ProfileResult call(final Callable<ProfileResult> hasJoinedServer)
+		throws AuthenticationUnavailableException
+	{
+		try
+		{
+			return hasJoinedServer.call();
+		}
+		catch(final AuthenticationUnavailableException | RuntimeException ex)
+		{
+			throw ex;
+		}
+		catch(final Exception ex)
+		{
+			throw new AuthenticationUnavailableException(ex);
+		}
+	}
+	
+	private static AuthenticationUnavailableException rethrow(final Throwable throwable)
+	{
+		final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+			? throwable.getCause()
+			: throwable;
+		if(cause instanceof final AuthenticationUnavailableException authEx)
+		{
+			return authEx;
+		}
+		if(cause instanceof final RuntimeException runtimeEx)
+		{
+			throw runtimeEx;
+		}
+		return new AuthenticationUnavailableException(cause);
+	}
+	
+	@FunctionalInterface
+	public interface FallbackAuthStarter
+	{
+		/**
+		 * @return cancels the fallback auth
+		 */
+		Runnable start(
+			ServerLoginPacketListenerImpl loginPacketListener,
+			Runnable defaultAction,
+			Consumer<String> customDisconnectAction,
+			Consumer<GameProfile> successAction);
+	}
+}
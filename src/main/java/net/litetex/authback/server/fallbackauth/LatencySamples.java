@@ -0,0 +1,77 @@
+package net.litetex.authback.server.fallbackauth;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+
+/**
+ * Keeps the most recent latency samples (in a ring buffer) to calculate percentiles.
+ */
+public class LatencySamples
+{
+	private static final int DEFAULT_CAPACITY = 1024;
+	
+	private final long[] samplesNanos;
+	private int next;
+	private int size;
+	private long total;
+	
+	public LatencySamples()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public LatencySamples(final int capacity)
+	{
+		this.samplesNanos = new long[capacity];
+	}
+	
+	public synchronized void record(final long nanos)
+	{
+		this.samplesNanos[this.next] = nanos;
+		this.next = (this.next + 1) % this.samplesNanos.length;
+		this.size = Math.min(this.size + 1, this.samplesNanos.length);
+		this.total++;
+	}
+	
+	public synchronized Snapshot snapshot()
+	{
+		final long[] sorted = Arrays.copyOf(this.samplesNanos, this.size);
+		Arrays.sort(sorted);
+		return new Snapshot(this.total, sorted);
+	}
+	
+	public record Snapshot(
+		long total,
+		long[] sortedNanos
+	)
+	{
+		public boolean isEmpty()
+		{
+			return this.sortedNanos.length == 0;
+		}
+		
+		/**
+		 * @param percentile between 0 and 100
+		 */
+		@SuppressWarnings("checkstyle:MagicNumber")
+		public Duration percentile(final double percentile)
+		{
+			if(this.isEmpty())
+			{
+				return Duration.ZERO;
+			}
+			final int index = (int)Math.ceil(percentile / 100.0 * this.sortedNanos.length) - 1;
+			return Duration.ofNanos(this.sortedNanos[Math.clamp(index, 0, this.sortedNanos.length - 1)]);
+		}
+		
+		@SuppressWarnings("checkstyle:MagicNumber")
+		@Override
+		public String toString()
+		{
+			return "total=" + this.total
+				+ ", p50=" + this.percentile(50).toMillis() + "ms"
+				+ ", p99=" + this.percentile(99).toMillis() + "ms";
+		}
+	}
+}
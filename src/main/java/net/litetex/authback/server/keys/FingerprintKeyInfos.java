@@ -0,0 +1,168 @@
+package net.litetex.authback.server.keys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import net.litetex.authback.server.keys.ServerProfilePublicKeysManager.KeyInfo;
+import net.litetex.authback.shared.crypto.KeyFingerprint;
+
+
+/**
+ * Small insertion ordered map of the keys of a player that uses the fingerprint (as primitives) as key.
+ * <p>
+ * As there are only a few keys per player a linear scan over primitive arrays is faster than hashing
+ * and doesn't require boxing or entry objects.
+ * The newest entry is always at the end.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+class FingerprintKeyInfos
+{
+	private static final int DEFAULT_CAPACITY = 2;
+	
+	private long[] highs;
+	private long[] lows;
+	private KeyInfo[] keyInfos;
+	private int size;
+	
+	FingerprintKeyInfos()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	FingerprintKeyInfos(final int initialCapacity)
+	{
+		final int capacity = Math.max(initialCapacity, 1);
+		this.highs = new long[capacity];
+		this.lows = new long[capacity];
+		this.keyInfos = new KeyInfo[capacity];
+	}
+	
+	int size()
+	{
+		return this.size;
+	}
+	
+	boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+	
+	private int indexOf(final KeyFingerprint fingerprint)
+	{
+		for(int i = 0; i < this.size; i++)
+		{
+			if(fingerprint.matches(this.highs[i], this.lows[i]))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	KeyInfo get(final KeyFingerprint fingerprint)
+	{
+		final int index = this.indexOf(fingerprint);
+		return index != -1 ? this.keyInfos[index] : null;
+	}
+	
+	/**
+	 * Puts the entry at the end (= newest), replacing an existing entry with the same fingerprint.
+	 *
+	 * @return the replaced entry
+	 */
+	KeyInfo putLast(final KeyInfo keyInfo)
+	{
+		final KeyInfo existing = this.remove(keyInfo.fingerprint());
+		
+		if(this.size == this.keyInfos.length)
+		{
+			final int newCapacity = this.size * 2;
+			this.highs = Arrays.copyOf(this.highs, newCapacity);
+			this.lows = Arrays.copyOf(this.lows, newCapacity);
+			this.keyInfos = Arrays.copyOf(this.keyInfos, newCapacity);
+		}
+		this.highs[this.size] = keyInfo.fingerprint().high();
+		this.lows[this.size] = keyInfo.fingerprint().low();
+		this.keyInfos[this.size] = keyInfo;
+		this.size++;
+		
+		return existing;
+	}
+	
+	KeyInfo remove(final KeyFingerprint fingerprint)
+	{
+		final int index = this.indexOf(fingerprint);
+		if(index == -1)
+		{
+			return null;
+		}
+		
+		final KeyInfo removed = this.keyInfos[index];
+		this.removeRange(index, index + 1);
+		return removed;
+	}
+	
+	/**
+	 * Removes the oldest entries so that at most the given amount of entries remain.
+	 */
+	void trimToNewest(final int maxSize)
+	{
+		if(this.size > maxSize)
+		{
+			this.removeRange(0, this.size - Math.max(maxSize, 0));
+		}
+	}
+	
+	/**
+	 * @return the amount of removed entries
+	 */
+	int removeIf(final Predicate<KeyInfo> predicate)
+	{
+		int newSize = 0;
+		for(int i = 0; i < this.size; i++)
+		{
+			if(!predicate.test(this.keyInfos[i]))
+			{
+				this.highs[newSize] = this.highs[i];
+				this.lows[newSize] = this.lows[i];
+				this.keyInfos[newSize] = this.keyInfos[i];
+				newSize++;
+			}
+		}
+		
+		final int removed = this.size - newSize;
+		Arrays.fill(this.keyInfos, newSize, this.size, null);
+		this.size = newSize;
+		return removed;
+	}
+	
+	private void removeRange(final int fromIndex, final int toIndex)
+	{
+		final int moved = this.size - toIndex;
+		System.arraycopy(this.highs, toIndex, this.highs, fromIndex, moved);
+		System.arraycopy(this.lows, toIndex, this.lows, fromIndex, moved);
+		System.arraycopy(this.keyInfos, toIndex, this.keyInfos, fromIndex, moved);
+		
+		final int newSize = this.size - (toIndex - fromIndex);
+		Arrays.fill(this.keyInfos, newSize, this.size, null);
+		this.size = newSize;
+	}
+	
+	KeyInfo newest()
+	{
+		return this.size > 0 ? this.keyInfos[this.size - 1] : null;
+	}
+	
+	/**
+	 * @return a copy of all entries ordered from oldest to newest
+	 */
+	List<KeyInfo> values()
+	{
+		return new ArrayList<>(Arrays.asList(this.keyInfos).subList(0, this.size));
+	}
+}
@@ -2,36 +2,51 @@ package net.litetex.authback.server.keys;
 
 import static net.litetex.authback.shared.collections.AdvancedCollectors.toLinkedHashMap;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.security.PublicKey;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Objects;
-import java.util.SequencedMap;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
 import net.litetex.authback.shared.crypto.Ed25519KeyDecoder;
+import net.litetex.authback.shared.crypto.KeyFingerprint;
 import net.litetex.authback.shared.external.com.google.common.base.Suppliers;
 import net.litetex.authback.shared.external.org.apache.commons.codec.DecoderException;
 import net.litetex.authback.shared.external.org.apache.commons.codec.binary.Hex;
+import net.litetex.authback.shared.io.AppendOnlyJournal;
+import net.litetex.authback.shared.io.PersistFormat;
+import net.litetex.authback.shared.io.PersistScheduler;
 import net.litetex.authback.shared.io.Persister;
+import net.litetex.authback.shared.json.JSONSerializer;
+import net.litetex.authback.shared.maintenance.MaintenanceScheduler;
+import net.litetex.authback.shared.parse.FastParsers;
 import net.litetex.authback.shared.sync.SynchronizedContainer;
 
 
@@ -39,89 +54,170 @@ public class ServerProfilePublicKeysManager
 {
 	private static final Logger LOG = LoggerFactory.getLogger(ServerProfilePublicKeysManager.class);
 	
-	private static final Duration DELETE_AFTER_UNUSED_EXECUTION_INTERVAL = Duration.ofHours(12);
+	private static final int BINARY_VERSION = 2;
+	private static final int BINARY_VERSION_WITHOUT_FINGERPRINT = 1;
+	// Ed25519 keys are 44 bytes - this is only a sanity check to detect corrupted files
+	private static final int MAX_BINARY_ENCODED_KEY_LENGTH = 4096;
 	
 	private final Path file;
+	private final PersistFormat persistFormat;
+	private final PersistScheduler.Registration persistRegistration;
 	
 	private final int maxKeysPerUser;
 	private final Duration deleteAfterUnused;
+	// Usages of a known key are only recorded with this granularity
+	// This way a rejoin doesn't require a modification + save
+	private final long touchGranularityMs;
 	
-	private Instant nextDeleteAfterUnusedExecutionTime = Instant.MIN;
+	// Journal: Records changes so that not the whole file needs to be rewritten on every change
+	// The journal is always replayed (even when disabled) so that no changes are lost when switching the mode
+	private final AppendOnlyJournal<JournalEntry> journal;
+	@Nullable
+	private final JournalConfig journalConfig;
+	private final Queue<JournalEntry> pendingJournalEntries = new ConcurrentLinkedQueue<>();
+	private Instant journalStartedAt;
+	private boolean journalCompactionRequired;
 	
-	// Using an ordered map here that always contains the latest value at the end
-	// This way cleanups can be A LOT (>20x) faster
-	// For some reason there is no Collections.synchronizedSequenceMap, so this needs to be done manually
-	private final SynchronizedContainer<SequencedMap<UUID, UUIDKeyInfos>> profileUUIDKeysSC =
-		new SynchronizedContainer<>(new LinkedHashMap<>());
+	// Concurrent index: Lookups only lock the entry of the requested uuid
+	// and therefore never need to wait for a save or cleanup
+	private final ConcurrentMap<UUID, UUIDKeyInfos> profileUUIDKeys = new ConcurrentHashMap<>();
+	// Contains the newest key usage of each uuid ordered by time (oldest first)
+	// This way cleanups don't need to check all uuids for ones that can be removed entirely
+	private final NavigableSet<Recency> recency = new ConcurrentSkipListSet<>();
 	
-	public ServerProfilePublicKeysManager(final Path file, final int maxKeysPerUser, final Duration deleteAfterUnused)
+	public ServerProfilePublicKeysManager(
+		final Path file,
+		final PersistFormat persistFormat,
+		final PersistScheduler persistScheduler,
+		final MaintenanceScheduler maintenanceScheduler,
+		final int maxKeysPerUser,
+		final Duration deleteAfterUnused,
+		final Duration touchGranularity,
+		@Nullable final JournalConfig journalConfig)
 	{
 		this.file = file;
+		this.persistFormat = persistFormat;
+		this.persistRegistration = persistScheduler.register(file.getFileName().toString(), this::saveToFile);
 		this.maxKeysPerUser = maxKeysPerUser;
 		this.deleteAfterUnused = deleteAfterUnused;
+		this.touchGranularityMs = touchGranularity.toMillis();
+		this.journal = new AppendOnlyJournal<>(
+			LOG,
+			file.resolveSibling(file.getFileName() + ".journal"),
+			JSONSerializer.COMPACT_GSON,
+			JournalEntry.class);
+		this.journalConfig = journalConfig;
 		this.readFile();
+		maintenanceScheduler.register(
+			file.getFileName().toString(),
+			() -> this.cleanUp(Instant.now().minus(this.deleteAfterUnused)));
+		
+		if(this.journalCompactionRequired)
+		{
+			this.saveAsync();
+		}
 	}
 	
 	public void add(final UUID uuid, final byte[] encodedPublicKey, final PublicKey publicKey)
 	{
-		final UUIDKeyInfos uuidKeyInfosSC = this.profileUUIDKeysSC.supplyWithLock(profileUUIDKeys -> {
-			final UUIDKeyInfos uuidKeyInfos =
-				Objects.requireNonNullElseGet(profileUUIDKeys.get(uuid), UUIDKeyInfos::new);
-			profileUUIDKeys.putLast(uuid, uuidKeyInfos);
-			return uuidKeyInfos;
-		});
+		final KeyFingerprint fingerprint = KeyFingerprint.of(encodedPublicKey);
+		if(this.isKnownAndUsedWithin(uuid, fingerprint, this.touchGranularityMs))
+		{
+			return;
+		}
 		
-		final int hash = Arrays.hashCode(encodedPublicKey);
-		final Instant now = Instant.now();
+		this.addWithoutSave(uuid, encodedPublicKey, fingerprint, () -> publicKey, Instant.now(), true);
+		this.saveAsync();
+	}
+	
+	/**
+	 * @return if the key is known and its last recorded usage is within the given duration
+	 */
+	public boolean isKnownAndUsedWithin(final UUID uuid, final KeyFingerprint fingerprint, final Duration within)
+	{
+		return this.isKnownAndUsedWithin(uuid, fingerprint, within.toMillis());
+	}
+	
+	private boolean isKnownAndUsedWithin(final UUID uuid, final KeyFingerprint fingerprint, final long withinMs)
+	{
+		final UUIDKeyInfos uuidKeyInfos = this.profileUUIDKeys.get(uuid);
+		if(uuidKeyInfos == null)
+		{
+			return false;
+		}
 		
-		uuidKeyInfosSC.execWithLock(hashKeyInfos -> {
-			final KeyInfo existingKeyInfo = hashKeyInfos.get(hash);
-			hashKeyInfos.putLast(
-				hash,
-				existingKeyInfo != null
-					? existingKeyInfo.updateLastUsedAt(now)
-					: new KeyInfo(encodedPublicKey, () -> publicKey, now));
+		final long usedAfterMs = System.currentTimeMillis() - withinMs;
+		return uuidKeyInfos.supplyWithLock(keyInfos -> {
+			final KeyInfo keyInfo = keyInfos.get(fingerprint);
+			return keyInfo != null && keyInfo.lastUsedAt().toEpochMilli() > usedAfterMs;
 		});
-		
-		if(uuidKeyInfosSC.value().size() > this.maxKeysPerUser)
+	}
+	
+	/**
+	 * @param journaled if the change should be recorded in the journal
+	 *                  (inside the lock so that the journal has the same order as the changes)
+	 * @return if the key was already present
+	 */
+	private boolean addWithoutSave(
+		final UUID uuid,
+		final byte[] encodedPublicKey,
+		final KeyFingerprint fingerprint,
+		final Supplier<PublicKey> publicKeySupplier,
+		final Instant lastUsedAt,
+		final boolean journaled)
+	{
+		while(true)
 		{
-			uuidKeyInfosSC.execWithLock(hashKeyInfos -> {
-				hashKeyInfos.entrySet()
-					.stream()
-					.limit(Math.max(hashKeyInfos.size() - this.maxKeysPerUser, 0))
-					.map(Map.Entry::getKey)
-					.toList()  // Collect to prevent modification
-					.forEach(hashKeyInfos::remove);
+			final UUIDKeyInfos uuidKeyInfos = this.profileUUIDKeys.computeIfAbsent(uuid, ignored -> new UUIDKeyInfos());
+			final Boolean existed = uuidKeyInfos.supplyWithLock(keyInfos -> {
+				if(uuidKeyInfos.removed)
+				{
+					return null;
+				}
+				
+				final KeyInfo existingKeyInfo = keyInfos.get(fingerprint);
+				keyInfos.putLast(existingKeyInfo != null
+					? existingKeyInfo.updateLastUsedAt(lastUsedAt)
+					: new KeyInfo(encodedPublicKey, fingerprint, publicKeySupplier, lastUsedAt));
+				keyInfos.trimToNewest(this.maxKeysPerUser);
+				
+				if(journaled)
+				{
+					// A touch only needs to reference the already known key
+					this.recordJournalEntry(new JournalEntry(
+						existingKeyInfo != null ? JournalOperation.TOUCH : JournalOperation.ADD,
+						uuid.toString(),
+						existingKeyInfo != null ? null : Hex.encodeHexString(encodedPublicKey),
+						fingerprint.toHex(),
+						lastUsedAt));
+				}
+				this.updateIndexState(uuid, uuidKeyInfos, keyInfos);
+				return existingKeyInfo != null;
 			});
+			if(existed != null)
+			{
+				return existed;
+			}
+			// The entry was removed concurrently (e.g. by a cleanup) -> retry with a new one
 		}
-		
-		this.saveAsync();
 	}
 	
 	// Quick check if there are any keys without validating if a key is valid
 	public boolean hasAnyKeyQuickCheck(final UUID profileUUID)
 	{
-		return this.getUUIDKeyInfosSC(profileUUID) != null;
-	}
-	
-	private SynchronizedContainer<LinkedHashMap<Integer, KeyInfo>> getUUIDKeyInfosSC(final UUID profileUUID)
-	{
-		return this.profileUUIDKeysSC.supplyWithLock(profileUUIDKeys -> profileUUIDKeys.get(profileUUID));
+		return this.profileUUIDKeys.containsKey(profileUUID);
 	}
 	
 	public PublicKey find(final UUID profileUUID, final byte[] encodedPublicKey)
 	{
-		final var uuidKeyInfosSC = this.getUUIDKeyInfosSC(profileUUID);
-		if(uuidKeyInfosSC == null)
+		final UUIDKeyInfos uuidKeyInfos = this.profileUUIDKeys.get(profileUUID);
+		if(uuidKeyInfos == null)
 		{
 			return null;
 		}
 		
-		this.cleanUpIfRequired();
-		
-		final int hashedPublicKey = Arrays.hashCode(encodedPublicKey);
-		final KeyInfo keyInfo = uuidKeyInfosSC.supplyWithLock(
-			hashKeyInfos -> hashKeyInfos.get(hashedPublicKey));
+		final KeyFingerprint fingerprint = KeyFingerprint.of(encodedPublicKey);
+		final KeyInfo keyInfo = uuidKeyInfos.supplyWithLock(keyInfos -> keyInfos.get(fingerprint));
 		if(keyInfo == null)
 		{
 			return null;
@@ -134,55 +230,78 @@ public class ServerProfilePublicKeysManager
 		catch(final Exception ex)
 		{
 			LOG.warn("Failed to deserialize public key", ex);
-			if(uuidKeyInfosSC.supplyWithLock(hashKeyInfos -> {
-				hashKeyInfos.remove(hashedPublicKey);
-				return hashKeyInfos.isEmpty();
-			}))
-			{
-				this.removeProfileUUIDKeyWithLock(profileUUID);
-			}
+			this.removeWithoutSave(profileUUID, fingerprint, true);
 			
 			return null;
 		}
 	}
 	
+	/**
+	 * @return the amount of profiles for which keys are stored
+	 */
+	public int profileCount()
+	{
+		return this.profileUUIDKeys.size();
+	}
+	
 	public int removeAll(final UUID uuid)
 	{
-		final var uuidKeyInfosSC = this.removeProfileUUIDKeyWithLock(uuid);
-		if(uuidKeyInfosSC == null)
+		final int removedKeys = this.removeAllWithoutSave(uuid, true);
+		if(removedKeys == 0)
 		{
 			return 0;
 		}
 		
 		this.saveAsync();
 		
-		return uuidKeyInfosSC.supplyWithLock(HashMap::size);
+		return removedKeys;
 	}
 	
-	public boolean remove(final UUID uuid, final String publicKeyEncoded)
+	/**
+	 * @param journaled see {@link #addWithoutSave}
+	 */
+	private int removeAllWithoutSave(final UUID uuid, final boolean journaled)
 	{
-		final var uuidKeyInfosSC = this.getUUIDKeyInfosSC(uuid);
-		if(uuidKeyInfosSC == null)
+		final UUIDKeyInfos uuidKeyInfos = this.profileUUIDKeys.get(uuid);
+		if(uuidKeyInfos == null)
 		{
-			return false;
+			return 0;
 		}
 		
-		try
-		{
-			final int hash = Arrays.hashCode(Hex.decodeHex(publicKeyEncoded));
-			if(uuidKeyInfosSC.supplyWithLock(hashKeyInfos -> hashKeyInfos.remove(hash)) == null)
+		return uuidKeyInfos.supplyWithLock(keyInfos -> {
+			if(uuidKeyInfos.removed)
 			{
-				return false;
+				return 0;
+			}
+			// Recorded before the removal from the index - afterwards a concurrent add could already be journaled
+			if(journaled)
+			{
+				this.recordJournalEntry(
+					new JournalEntry(JournalOperation.REMOVE_ALL, uuid.toString(), null, null, null));
 			}
+			this.removeFromIndex(uuid, uuidKeyInfos);
+			return keyInfos.size();
+		});
+	}
+	
+	/**
+	 * @param publicKeyHex the encoded public key or its fingerprint as hex
+	 */
+	public boolean remove(final UUID uuid, final String publicKeyHex)
+	{
+		final KeyFingerprint fingerprint;
+		try
+		{
+			fingerprint = parseFingerprint(publicKeyHex);
 		}
 		catch(final DecoderException dex)
 		{
 			return false;
 		}
 		
-		if(uuidKeyInfosSC.supplyWithLock(HashMap::isEmpty))
+		if(!this.removeWithoutSave(uuid, fingerprint, true))
 		{
-			this.removeProfileUUIDKeyWithLock(uuid);
+			return false;
 		}
 		
 		this.saveAsync();
@@ -190,25 +309,119 @@ public class ServerProfilePublicKeysManager
 		return true;
 	}
 	
-	private SynchronizedContainer<LinkedHashMap<Integer, KeyInfo>> removeProfileUUIDKeyWithLock(final UUID uuid)
+	private static KeyFingerprint parseFingerprint(final String publicKeyHex) throws DecoderException
 	{
-		return this.profileUUIDKeysSC.supplyWithLock(profileUUIDKeys -> profileUUIDKeys.remove(uuid));
+		return publicKeyHex.length() == KeyFingerprint.LENGTH_HEX
+			? KeyFingerprint.fromHex(publicKeyHex)
+			: KeyFingerprint.of(Hex.decodeHex(publicKeyHex));
+	}
+	
+	/**
+	 * @param journaled see {@link #addWithoutSave}
+	 */
+	private boolean removeWithoutSave(final UUID uuid, final KeyFingerprint fingerprint, final boolean journaled)
+	{
+		final UUIDKeyInfos uuidKeyInfos = this.profileUUIDKeys.get(uuid);
+		if(uuidKeyInfos == null)
+		{
+			return false;
+		}
+		
+		return uuidKeyInfos.supplyWithLock(keyInfos -> {
+			if(uuidKeyInfos.removed || keyInfos.remove(fingerprint) == null)
+			{
+				return false;
+			}
+			// Recorded before the index is updated (which might remove the profile) - see removeAllWithoutSave
+			if(journaled)
+			{
+				this.recordJournalEntry(new JournalEntry(
+					JournalOperation.REMOVE,
+					uuid.toString(),
+					null,
+					fingerprint.toHex(),
+					null));
+			}
+			this.updateIndexState(uuid, uuidKeyInfos, keyInfos);
+			return true;
+		});
+	}
+	
+	private void touchWithoutSave(final UUID uuid, final KeyFingerprint fingerprint, final Instant lastUsedAt)
+	{
+		final UUIDKeyInfos uuidKeyInfos = this.profileUUIDKeys.get(uuid);
+		if(uuidKeyInfos == null)
+		{
+			return;
+		}
+		
+		uuidKeyInfos.execWithLock(keyInfos -> {
+			final KeyInfo existingKeyInfo = keyInfos.get(fingerprint);
+			if(!uuidKeyInfos.removed && existingKeyInfo != null)
+			{
+				keyInfos.putLast(existingKeyInfo.updateLastUsedAt(lastUsedAt));
+				this.updateIndexState(uuid, uuidKeyInfos, keyInfos);
+			}
+		});
+	}
+	
+	/**
+	 * Updates the recency of the profile or removes it from the index if it has no keys left.
+	 * <p>
+	 * Must be called while holding the lock of the {@link UUIDKeyInfos}.
+	 * </p>
+	 *
+	 * @return if the profile was removed
+	 */
+	private boolean updateIndexState(
+		final UUID uuid,
+		final UUIDKeyInfos uuidKeyInfos,
+		final FingerprintKeyInfos keyInfos)
+	{
+		final KeyInfo newestKeyInfo = keyInfos.newest();
+		if(newestKeyInfo == null)
+		{
+			this.removeFromIndex(uuid, uuidKeyInfos);
+			return true;
+		}
+		
+		final Recency recency = new Recency(newestKeyInfo.lastUsedAt(), uuid);
+		if(!recency.equals(uuidKeyInfos.recency))
+		{
+			if(uuidKeyInfos.recency != null)
+			{
+				this.recency.remove(uuidKeyInfos.recency);
+			}
+			this.recency.add(recency);
+			uuidKeyInfos.recency = recency;
+		}
+		return false;
+	}
+	
+	// Must be called while holding the lock of the UUIDKeyInfos
+	private void removeFromIndex(final UUID uuid, final UUIDKeyInfos uuidKeyInfos)
+	{
+		uuidKeyInfos.removed = true;
+		if(uuidKeyInfos.recency != null)
+		{
+			this.recency.remove(uuidKeyInfos.recency);
+			uuidKeyInfos.recency = null;
+		}
+		this.profileUUIDKeys.remove(uuid, uuidKeyInfos);
 	}
 	
 	public Set<UUID> profileUUIDs()
 	{
-		return this.profileUUIDKeysSC.supplyWithLock(profileUUIDKeys -> new HashSet<>(profileUUIDKeys.keySet()));
+		return new HashSet<>(this.profileUUIDKeys.keySet());
 	}
 	
 	public Map<UUID, List<PublicKeyInfo>> uuidPublicKeyHex()
 	{
-		final SequencedMap<UUID, SynchronizedContainer<LinkedHashMap<Integer, KeyInfo>>> profileUUIDKeysCopy =
-			this.profileUUIDKeysSC.supplyWithLock(LinkedHashMap::new);
-		return profileUUIDKeysCopy.entrySet()
+		return this.profileUUIDKeys.entrySet()
 			.stream()
 			.collect(Collectors.toMap(
 				Map.Entry::getKey,
-				e -> e.getValue().supplyWithLock(hashKeyInfos -> hashKeyInfos.values()
+				e -> e.getValue().supplyWithLock(keyInfos -> keyInfos.values()
 					.stream()
 					.map(k -> new PublicKeyInfo(Hex.encodeHexString(k.publicKeyEncoded()), k.lastUsedAt()))
 					.sorted(Comparator.comparing(PublicKeyInfo::lastUse))
@@ -222,94 +435,79 @@ public class ServerProfilePublicKeysManager
 	{
 	}
 	
-	@SuppressWarnings("PMD.CognitiveComplexity") // Well documented
-	private synchronized void cleanUpIfRequired()
+	/**
+	 * Executed by the {@link MaintenanceScheduler}.
+	 *
+	 * @return the amount of removed keys
+	 */
+	private int cleanUp(final Instant deleteBefore)
 	{
-		final Instant now = Instant.now();
-		if(!this.nextDeleteAfterUnusedExecutionTime.isBefore(now))
-		{
-			return;
-		}
-		
 		LOG.debug("Executing cleanup");
 		final long startMs = System.currentTimeMillis();
-		this.nextDeleteAfterUnusedExecutionTime = now.plus(DELETE_AFTER_UNUSED_EXECUTION_INTERVAL);
 		
-		final Instant deleteBefore = now.minus(this.deleteAfterUnused);
-		
-		// The ordered structure looks like this
-		// A-+1 2000-01-01
-		// | -2 2000-02-01
-		// B-+1 2000-01-01
-		// | -2 2000-02-02
-		// C--1 2000-02-03
-		final LinkedHashMap<UUID, UUIDKeyInfos> profileUUIDKeysCopy =
-			this.profileUUIDKeysSC.supplyWithLock(LinkedHashMap::new);
-		
-		final List<UUID> entriesToDelete = new ArrayList<>();
+		final AtomicInteger deletedUUIDsCounter = new AtomicInteger(0);
 		final AtomicInteger deletedKeysCounter = new AtomicInteger(0);
 		
-		boolean checkForDeleteEntireEntry = true;
-		for(final Map.Entry<UUID, UUIDKeyInfos> entry : profileUUIDKeysCopy.entrySet())
+		// The recency is ordered by the newest key of each uuid - starting with the oldest uuids
+		// If the newest key of an uuid is expired the entire uuid must therefore be removed
+		for(final Recency recency : this.recency)
 		{
-			if(checkForDeleteEntireEntry)
+			if(!recency.lastUsedAt().isBefore(deleteBefore))
 			{
-				// We are starting with the oldest uuids
-				// Check the newest/last keyinfo of this uuid
-				// If this keyinfo is expired the entire uuid must therefore be removed
-				
-				final Map.Entry<Integer, KeyInfo> newestLastEntry =
-					entry.getValue().supplyWithLock(SequencedMap::lastEntry);
-				if(newestLastEntry == null // has no keyInfos!
-					|| newestLastEntry.getValue().lastUsedAt().isBefore(deleteBefore)
-				)
-				{
-					entriesToDelete.add(entry.getKey());
-					continue;
-				}
-				
-				checkForDeleteEntireEntry = false;
+				break;
 			}
 			
-			// Check in detail if a keyinfo in an uuid is expired
-			// and remove it if required
-			// also remove uuids that have 0 keyinfos
-			if(entry.getValue().supplyWithLock(hashKeyInfos -> {
-				if(hashKeyInfos.isEmpty())
-				{
-					return true;
-				}
-				
-				final List<Integer> keysToRemove = new ArrayList<>();
-				for(final Map.Entry<Integer, KeyInfo> entry2 : hashKeyInfos.entrySet())
-				{
-					if(!entry2.getValue().lastUsedAt().isBefore(deleteBefore))
-					{
-						continue;
-					}
-					keysToRemove.add(entry2.getKey());
-				}
-				keysToRemove.forEach(hashKeyInfos::remove);
-				deletedKeysCounter.addAndGet(keysToRemove.size());
-				
-				return false;
-			}))
+			final UUIDKeyInfos uuidKeyInfos = this.profileUUIDKeys.get(recency.uuid());
+			if(uuidKeyInfos == null)
 			{
-				entriesToDelete.add(entry.getKey());
+				continue;
 			}
+			uuidKeyInfos.execWithLock(keyInfos -> {
+				// Ignore if the uuid was used in the meantime
+				if(!uuidKeyInfos.removed && recency.equals(uuidKeyInfos.recency))
+				{
+					this.removeFromIndex(recency.uuid(), uuidKeyInfos);
+					deletedUUIDsCounter.incrementAndGet();
+					deletedKeysCounter.addAndGet(keyInfos.size());
+				}
+			});
 		}
 		
-		if(!entriesToDelete.isEmpty())
+		// Check in detail if a keyinfo in an uuid is expired and remove it if required
+		// Only one uuid is locked at a time, so that lookups of all other uuids are not affected
+		for(final Map.Entry<UUID, UUIDKeyInfos> entry : this.profileUUIDKeys.entrySet())
 		{
-			this.profileUUIDKeysSC.execWithLock(profileUUIDKeys ->
-				entriesToDelete.forEach(profileUUIDKeys::remove));
+			final UUIDKeyInfos uuidKeyInfos = entry.getValue();
+			uuidKeyInfos.execWithLock(keyInfos -> {
+				if(uuidKeyInfos.removed)
+				{
+					return;
+				}
+				final int deletedKeys = keyInfos.removeIf(k -> k.lastUsedAt().isBefore(deleteBefore));
+				if(deletedKeys == 0)
+				{
+					return;
+				}
+				
+				deletedKeysCounter.addAndGet(deletedKeys);
+				if(this.updateIndexState(entry.getKey(), uuidKeyInfos, keyInfos))
+				{
+					deletedUUIDsCounter.incrementAndGet();
+				}
+			});
 		}
 		
 		LOG.debug(
 			"Executed cleanUp, deleted {}x UUIDs and {}x keys in {}ms",
-			entriesToDelete.size(),
+			deletedUUIDsCounter.get(),
 			deletedKeysCounter.get(),
 			System.currentTimeMillis() - startMs);
+		
+		if(deletedKeysCounter.get() > 0)
+		{
+			this.saveAsync();
+		}
+		return deletedKeysCounter.get();
 	}
 	
 	private void readFile()
@@ -320,46 +518,29 @@ public class ServerProfilePublicKeysManager
 			final Instant deleteBefore = Instant.now().minus(this.deleteAfterUnused);
 			
 			final LinkedHashMap<UUID, UUIDKeyInfos> readProfileUUIDKeys =
-				Persister.tryRead(LOG, this.file, PersistentState.class)
-					.orElseGet(PersistentState::new)
-					.ensureProfileUUIDKeys()
-					.entrySet()
-					.stream()
-					.filter(e -> e.getValue() != null)
-					.collect(toLinkedHashMap(
-						e -> UUID.fromString(e.getKey()),
-						e -> new UUIDKeyInfos(e.getValue().stream()
-							.filter(e2 -> e2.lastUsedAt().isAfter(deleteBefore))
-							.map(e2 -> {
-								try
-								{
-									return Map.entry(Hex.decodeHex(e2.publicKey()), e2);
-								}
-								catch(final DecoderException ex)
-								{
-									LOG.warn("Failed to decode public key from file", ex);
-									return null;
-								}
-							})
-							.filter(Objects::nonNull)
-							.collect(toLinkedHashMap(
-								e3 -> Arrays.hashCode(e3.getKey()),
-								e3 -> new KeyInfo(
-									e3.getKey(),
-									Suppliers.memoize(() -> new Ed25519KeyDecoder().decodePublic(e3.getKey())),
-									e3.getValue().lastUsedAt()
-								)))))
-					);
+				this.persistFormat.formatToRead(this.file) == PersistFormat.BINARY
+					? Persister.tryReadBinary(
+							LOG,
+							PersistFormat.BINARY.resolve(this.file),
+							(in, version) -> readBinary(in, version, deleteBefore))
+						.orElseGet(LinkedHashMap::new)
+					: this.readJson(deleteBefore);
 			
-			this.profileUUIDKeysSC.execWithLock(profileUUIDKeys -> {
-				profileUUIDKeys.clear();
-				profileUUIDKeys.putAll(readProfileUUIDKeys);
+			this.profileUUIDKeys.clear();
+			this.recency.clear();
+			readProfileUUIDKeys.forEach((uuid, uuidKeyInfos) -> {
+				this.profileUUIDKeys.put(uuid, uuidKeyInfos);
+				uuidKeyInfos.execWithLock(keyInfos -> this.updateIndexState(uuid, uuidKeyInfos, keyInfos));
 			});
 			
+			// Compact directly after startup so that the journal is always based on the latest snapshot
+			// This also gets rid of a potentially truncated entry at the end
+			this.journalCompactionRequired = this.journal.replay(this::applyJournalEntry) > 0;
+			
 			LOG.debug(
 				"Took {}ms to read keys for {}x profiles",
 				System.currentTimeMillis() - startMs,
-				this.profileUUIDKeysSC.value().size());
+				this.profileUUIDKeys.size());
 		}
 		catch(final Exception ex)
 		{
@@ -367,63 +548,391 @@ public class ServerProfilePublicKeysManager
 		}
 	}
 	
+	private LinkedHashMap<UUID, UUIDKeyInfos> readJson(final Instant deleteBefore)
+	{
+		final Map<String, Set<PersistentState.PersistentKeyInfo>> persistentProfileUUIDKeys =
+			Persister.tryRead(LOG, this.file, PersistentState.class)
+				.orElseGet(PersistentState::new)
+				.ensureProfileUUIDKeys();
+		return persistentProfileUUIDKeys
+			.entrySet()
+			.stream()
+			.filter(e -> e.getValue() != null)
+			.collect(toLinkedHashMap(
+				e -> FastParsers.parseUUID(e.getKey()),
+				e -> {
+					final FingerprintKeyInfos keyInfos = new FingerprintKeyInfos(e.getValue().size());
+					e.getValue().stream()
+						.filter(e2 -> e2.lastUsedAt().isAfter(deleteBefore))
+						.map(e2 -> {
+							try
+							{
+								return e2.toKeyInfo();
+							}
+							catch(final DecoderException ex)
+							{
+								LOG.warn("Failed to decode public key from file", ex);
+								return null;
+							}
+						})
+						.filter(Objects::nonNull)
+						.forEach(keyInfos::putLast);
+					return new UUIDKeyInfos(keyInfos);
+				},
+				persistentProfileUUIDKeys.size())
+			);
+	}
+	
 	private void saveAsync()
 	{
-		CompletableFuture.runAsync(this::saveToFile);
+		this.persistRegistration.markDirty();
 	}
 	
-	private synchronized void saveToFile()
+	private synchronized boolean saveToFile()
 	{
-		this.cleanUpIfRequired();
+		if(this.journalConfig != null && !this.isJournalCompactionRequired())
+		{
+			return this.appendPendingJournalEntries();
+		}
 		
-		final LinkedHashMap<String, Set<PersistentState.PersistentKeyInfo>> mapToSave =
-			this.profileUUIDKeysSC.supplyWithLock(profileUUIDKeys ->
-				profileUUIDKeys.entrySet()
-					.stream()
-					.collect(toLinkedHashMap(
-						e -> e.getKey().toString(),
-						e -> e.getValue().supplyWithLock(map -> new ArrayList<>(map.values()))
-							.stream()
-							.map(KeyInfo::persist)
-							.collect(Collectors.toCollection(LinkedHashSet::new))
-					))
-			);
+		// All changes until now are contained in the snapshot
+		// Entries that are recorded concurrently might be written again into the next journal, which is harmless
+		this.pendingJournalEntries.clear();
 		
-		LOG.debug("Saving {}x profiles", mapToSave.size());
-		Persister.trySave(
-			LOG,
-			this.file,
-			() -> new PersistentState(mapToSave));
+		final LinkedHashMap<UUID, List<KeyInfo>> snapshot = this.snapshot();
+		
+		LOG.debug("Saving {}x profiles", snapshot.size());
+		final boolean saved = this.persistFormat == PersistFormat.BINARY
+			? Persister.trySaveBinary(
+				LOG,
+				PersistFormat.BINARY.resolve(this.file),
+				BINARY_VERSION,
+				out -> writeBinary(out, snapshot))
+			: Persister.tryStream(LOG, this.file, (writer, gson) -> writeJson(writer, gson, snapshot));
+		if(!saved)
+		{
+			return false;
+		}
+		
+		this.persistFormat.deleteOtherFormat(this.file);
+		if(this.journal.sizeBytes() > 0 || this.journalCompactionRequired)
+		{
+			this.journal.reset();
+			this.journalStartedAt = null;
+			this.journalCompactionRequired = false;
+		}
+		return true;
+	}
+	
+	private LinkedHashMap<UUID, List<KeyInfo>> snapshot()
+	{
+		// Only one uuid is locked at a time
+		final LinkedHashMap<UUID, List<KeyInfo>> snapshot =
+			LinkedHashMap.newLinkedHashMap(this.profileUUIDKeys.size());
+		this.profileUUIDKeys.forEach((uuid, uuidKeyInfos) -> {
+			final List<KeyInfo> keyInfos = uuidKeyInfos.supplyWithLock(map -> new ArrayList<>(map.values()));
+			if(!keyInfos.isEmpty())
+			{
+				snapshot.put(uuid, keyInfos);
+			}
+		});
+		return snapshot;
+	}
+	
+	/**
+	 * Exports the human-readable JSON representation - independent of the used format.
+	 *
+	 * @return the path of the exported file or <code>null</code> if the export failed
+	 */
+	public Path exportJson()
+	{
+		final Path exportFile = PersistFormat.exportFile(this.file);
+		final LinkedHashMap<UUID, List<KeyInfo>> snapshot = this.snapshot();
+		return Persister.tryStream(LOG, exportFile, (writer, gson) -> writeJson(writer, gson, snapshot))
+			? exportFile
+			: null;
+	}
+	
+	/**
+	 * Writes the {@link PersistentState} entry by entry, so that it's never completely created in memory.
+	 */
+	private static void writeJson(
+		final JsonWriter writer,
+		final Gson gson,
+		final LinkedHashMap<UUID, List<KeyInfo>> snapshot) throws IOException
+	{
+		writer.beginObject();
+		writer.name("profileUUIDKeys").beginObject();
+		for(final Map.Entry<UUID, List<KeyInfo>> entry : snapshot.entrySet())
+		{
+			writer.name(entry.getKey().toString()).beginArray();
+			for(final KeyInfo keyInfo : entry.getValue())
+			{
+				gson.toJson(keyInfo.persist(), PersistentState.PersistentKeyInfo.class, writer);
+			}
+			writer.endArray();
+		}
+		writer.endObject();
+		writer.endObject();
+	}
+	
+	// region Binary
+	
+	// Layout (version 2):
+	// int profileCount
+	// per profile: long uuidMostSigBits, long uuidLeastSigBits, int keyCount
+	// per key: int encodedKeyLength, byte[] encodedKey (X.509),
+	//   long fingerprintHigh, long fingerprintLow, long lastUsedAt (epoch seconds)
+	// Version 1 is identical except that the fingerprint is missing
+	
+	private static void writeBinary(
+		final DataOutputStream out,
+		final LinkedHashMap<UUID, List<KeyInfo>> snapshot) throws IOException
+	{
+		out.writeInt(snapshot.size());
+		for(final Map.Entry<UUID, List<KeyInfo>> entry : snapshot.entrySet())
+		{
+			out.writeLong(entry.getKey().getMostSignificantBits());
+			out.writeLong(entry.getKey().getLeastSignificantBits());
+			out.writeInt(entry.getValue().size());
+			for(final KeyInfo keyInfo : entry.getValue())
+			{
+				out.writeInt(keyInfo.publicKeyEncoded().length);
+				out.write(keyInfo.publicKeyEncoded());
+				out.writeLong(keyInfo.fingerprint().high());
+				out.writeLong(keyInfo.fingerprint().low());
+				out.writeLong(keyInfo.lastUsedAt().getEpochSecond());
+			}
+		}
+	}
+	
+	private static LinkedHashMap<UUID, UUIDKeyInfos> readBinary(
+		final DataInputStream in,
+		final int version,
+		final Instant deleteBefore) throws IOException
+	{
+		if(version != BINARY_VERSION && version != BINARY_VERSION_WITHOUT_FINGERPRINT)
+		{
+			throw new IOException("Unsupported version " + version);
+		}
+		
+		final int profileCount = in.readInt();
+		final LinkedHashMap<UUID, UUIDKeyInfos> profileUUIDKeys = LinkedHashMap.newLinkedHashMap(profileCount);
+		for(int i = 0; i < profileCount; i++)
+		{
+			final UUID uuid = new UUID(in.readLong(), in.readLong());
+			
+			final int keyCount = in.readInt();
+			final FingerprintKeyInfos keyInfos = new FingerprintKeyInfos(keyCount);
+			for(int k = 0; k < keyCount; k++)
+			{
+				final int encodedKeyLength = in.readInt();
+				if(encodedKeyLength < 0 || encodedKeyLength > MAX_BINARY_ENCODED_KEY_LENGTH)
+				{
+					throw new IOException("Invalid encoded key length " + encodedKeyLength);
+				}
+				final byte[] encodedKey = new byte[encodedKeyLength];
+				in.readFully(encodedKey);
+				final KeyFingerprint fingerprint = version != BINARY_VERSION_WITHOUT_FINGERPRINT
+					? new KeyFingerprint(in.readLong(), in.readLong())
+					: KeyFingerprint.of(encodedKey);
+				final Instant lastUsedAt = Instant.ofEpochSecond(in.readLong());
+				
+				if(lastUsedAt.isAfter(deleteBefore))
+				{
+					keyInfos.putLast(KeyInfo.lazyDecoding(encodedKey, fingerprint, lastUsedAt));
+				}
+			}
+			profileUUIDKeys.put(uuid, new UUIDKeyInfos(keyInfos));
+		}
+		return profileUUIDKeys;
+	}
+	
+	// endregion
+	// region Journal
+	
+	private void recordJournalEntry(final JournalEntry entry)
+	{
+		if(this.journalConfig != null)
+		{
+			this.pendingJournalEntries.add(entry);
+		}
+	}
+	
+	private boolean isJournalCompactionRequired()
+	{
+		return this.journalCompactionRequired
+			|| this.journal.sizeBytes() >= this.journalConfig.compactAfterBytes()
+			|| (this.journalStartedAt != null
+			&& this.journalStartedAt.plus(this.journalConfig.compactAfter()).isBefore(Instant.now()));
 	}
 	
-	static class UUIDKeyInfos extends SynchronizedContainer<LinkedHashMap<Integer, KeyInfo>>
+	/**
+	 * @return <code>false</code> if the entries couldn't be appended (they are then written with the next snapshot)
+	 */
+	private boolean appendPendingJournalEntries()
 	{
+		final List<JournalEntry> entries = new ArrayList<>();
+		JournalEntry entry;
+		while((entry = this.pendingJournalEntries.poll()) != null)
+		{
+			entries.add(entry);
+		}
+		if(entries.isEmpty())
+		{
+			return true;
+		}
+		
+		if(this.journalStartedAt == null)
+		{
+			this.journalStartedAt = Instant.now();
+		}
+		if(!this.journal.append(entries))
+		{
+			// Write everything with the next snapshot (the save is retried by the PersistScheduler)
+			this.journalCompactionRequired = true;
+			return false;
+		}
+		return true;
+	}
+	
+	private void applyJournalEntry(final JournalEntry entry)
+	{
+		try
+		{
+			final UUID uuid = FastParsers.parseUUID(entry.uuid());
+			switch(entry.operation())
+			{
+				case ADD, TOUCH ->
+				{
+					Objects.requireNonNull(entry.lastUsedAt(), "lastUsedAt");
+					if(entry.publicKey() != null)
+					{
+						final KeyInfo keyInfo =
+							KeyInfo.lazyDecoding(FastParsers.decodeHex(entry.publicKey()), entry.lastUsedAt());
+						this.addWithoutSave(
+							uuid,
+							keyInfo.publicKeyEncoded(),
+							keyInfo.fingerprint(),
+							keyInfo.publicKeySupplier(),
+							keyInfo.lastUsedAt(),
+							false);
+					}
+					else
+					{
+						this.touchWithoutSave(uuid, KeyFingerprint.fromHex(entry.fingerprint()), entry.lastUsedAt());
+					}
+				}
+				case REMOVE -> this.removeWithoutSave(
+					uuid,
+					parseFingerprint(Objects.requireNonNullElse(entry.fingerprint(), entry.publicKey())),
+					false);
+				case REMOVE_ALL -> this.removeAllWithoutSave(uuid, false);
+			}
+		}
+		catch(final Exception ex)
+		{
+			LOG.warn("Failed to apply journal entry {}", entry, ex);
+		}
+	}
+	
+	public record JournalConfig(
+		long compactAfterBytes,
+		Duration compactAfter
+	)
+	{
+	}
+	
+	
+	record JournalEntry(
+		JournalOperation operation,
+		String uuid,
+		String publicKey,
+		String fingerprint,
+		Instant lastUsedAt
+	)
+	{
+	}
+	
+	
+	enum JournalOperation
+	{
+		ADD,
+		TOUCH,
+		REMOVE,
+		REMOVE_ALL
+	}
+	
+	// endregion
+	
+	static class UUIDKeyInfos extends SynchronizedContainer<FingerprintKeyInfos>
+	{
+		// Both are guarded by the lock of the container
+		// Once removed from the index, the instance must no longer be modified
+		private boolean removed;
+		private Recency recency;
+		
 		UUIDKeyInfos()
 		{
-			this(new LinkedHashMap<>());
+			this(new FingerprintKeyInfos());
 		}
 		
-		UUIDKeyInfos(final LinkedHashMap<Integer, KeyInfo> value)
+		UUIDKeyInfos(final FingerprintKeyInfos value)
 		{
 			super(value);
 		}
 	}
 	
+	record Recency(
+		Instant lastUsedAt,
+		UUID uuid
+	) implements Comparable<Recency>
+	{
+		private static final Comparator<Recency> COMPARATOR =
+			Comparator.comparing(Recency::lastUsedAt).thenComparing(Recency::uuid);
+		
+		@Override
+		public int compareTo(final Recency o)
+		{
+			return COMPARATOR.compare(this, o);
+		}
+	}
+	
+	
 	record KeyInfo(
 		byte[] publicKeyEncoded,
+		KeyFingerprint fingerprint,
 		Supplier<PublicKey> publicKeySupplier,
 		Instant lastUsedAt
 	)
 	{
 		KeyInfo updateLastUsedAt(final Instant now)
 		{
-			return new KeyInfo(this.publicKeyEncoded(), this.publicKeySupplier(), now);
+			return new KeyInfo(this.publicKeyEncoded(), this.fingerprint(), this.publicKeySupplier(), now);
+		}
+		
+		static KeyInfo lazyDecoding(final byte[] publicKeyEncoded, final Instant lastUsedAt)
+		{
+			return lazyDecoding(publicKeyEncoded, KeyFingerprint.of(publicKeyEncoded), lastUsedAt);
+		}
+		
+		static KeyInfo lazyDecoding(
+			final byte[] publicKeyEncoded,
+			final KeyFingerprint fingerprint,
+			final Instant lastUsedAt)
+		{
+			return new KeyInfo(
+				publicKeyEncoded,
+				fingerprint,
+				Suppliers.memoize(() -> new Ed25519KeyDecoder().decodePublic(publicKeyEncoded)),
+				lastUsedAt);
 		}
 		
 		PersistentState.PersistentKeyInfo persist()
 		{
 			return new PersistentState.PersistentKeyInfo(
 				Hex.encodeHexString(this.publicKeyEncoded()),
+				this.fingerprint().toHex(),
 				this.lastUsedAt()
 			);
 		}
@@ -446,9 +955,21 @@ public class ServerProfilePublicKeysManager
 		
 		record PersistentKeyInfo(
 			String publicKey,
+			String fingerprint,
 			Instant lastUsedAt
 		)
 		{
+			KeyInfo toKeyInfo() throws DecoderException
+			{
+				final byte[] publicKeyEncoded = FastParsers.decodeHex(this.publicKey());
+				// The fingerprint is missing in files written by older versions
+				return KeyInfo.lazyDecoding(
+					publicKeyEncoded,
+					this.fingerprint() != null
+						? KeyFingerprint.fromHex(this.fingerprint())
+						: KeyFingerprint.of(publicKeyEncoded),
+					this.lastUsedAt());
+			}
 		}
 	}
 }
@@ -1,6 +1,7 @@
 package net.litetex.authback.server.network;
 
 import java.security.PublicKey;
+import java.time.Duration;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -16,6 +17,8 @@ import net.litetex.authback.shared.crypto.Ed25519KeyDecoder;
 import net.litetex.authback.shared.crypto.Ed25519Signature;
 import net.litetex.authback.shared.crypto.SecureRandomByteArrayCreator;
 import net.litetex.authback.shared.network.configuration.ConfigurationRegistrySetup;
+import net.litetex.authback.shared.network.configuration.SyncAnnouncePayloadC2S;
+import net.litetex.authback.shared.network.configuration.SyncAnnounceRequestPayloadS2C;
 import net.litetex.authback.shared.network.configuration.SyncPayloadC2S;
 import net.litetex.authback.shared.network.configuration.SyncPayloadS2C;
 import net.minecraft.network.Connection;
@@ -29,13 +32,17 @@ public class AuthBackServerNetworking
 	
 	private final Set<Connection> connectionsToSkipUpToDateCheck;
 	private final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier;
+	// Announced keys that were verified within this duration don't need to be verified again
+	private final Duration verifyKnownKeyAfter;
 	
 	public AuthBackServerNetworking(
 		final Set<Connection> connectionsToSkipUpToDateCheck,
-		final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier)
+		final Supplier<ServerProfilePublicKeysManager> serverProfilePublicKeysManagerSupplier,
+		final Duration verifyKnownKeyAfter)
 	{
 		this.connectionsToSkipUpToDateCheck = connectionsToSkipUpToDateCheck;
 		this.serverProfilePublicKeysManagerSupplier = serverProfilePublicKeysManagerSupplier;
+		this.verifyKnownKeyAfter = verifyKnownKeyAfter;
 		
 		this.setupProtoConfiguration();
 	}
@@ -58,20 +65,56 @@ public class AuthBackServerNetworking
 				return;
 			}
 			
-			if(!ServerConfigurationNetworking.canSend(handler, SyncPayloadS2C.ID))
+			// v2: Let the client announce its key first - only clients that support it can receive the request
+			if(ServerConfigurationNetworking.canSend(handler, SyncAnnounceRequestPayloadS2C.ID))
 			{
-				LOG.debug("Unable to send {} to {}", SyncPayloadS2C.ID, profile.id());
+				this.registerAnnouncePacketReceiver(handler, profile);
+				
+				handler.send(new ClientboundCustomPayloadPacket(new SyncAnnounceRequestPayloadS2C()));
 				return;
 			}
 			
-			final byte[] challenge = SecureRandomByteArrayCreator.create(4);
-			
-			this.registerUpToDateCheckPacketReceiver(handler, challenge, profile);
-			
-			handler.send(new ClientboundCustomPayloadPacket(new SyncPayloadS2C(challenge)));
+			this.sendUpToDateCheck(handler, profile);
 		});
 	}
 	
+	private void registerAnnouncePacketReceiver(
+		final ServerConfigurationPacketListenerImpl originalHandler,
+		final GameProfile profile)
+	{
+		ServerConfigurationNetworking.registerReceiver(
+			originalHandler,
+			SyncAnnouncePayloadC2S.ID,
+			(payload, context) -> {
+				if(this.serverProfilePublicKeysManager().isKnownAndUsedWithin(
+					profile.id(),
+					payload.fingerprint(),
+					this.verifyKnownKeyAfter))
+				{
+					LOG.debug("Announced key of {} was verified recently, skipping up-to-date check", profile.id());
+					return;
+				}
+				
+				this.sendUpToDateCheck(originalHandler, profile);
+			}
+		);
+	}
+	
+	private void sendUpToDateCheck(final ServerConfigurationPacketListenerImpl handler, final GameProfile profile)
+	{
+		if(!ServerConfigurationNetworking.canSend(handler, SyncPayloadS2C.ID))
+		{
+			LOG.debug("Unable to send {} to {}", SyncPayloadS2C.ID, profile.id());
+			return;
+		}
+		
+		final byte[] challenge = SecureRandomByteArrayCreator.create(4);
+		
+		this.registerUpToDateCheckPacketReceiver(handler, challenge, profile);
+		
+		handler.send(new ClientboundCustomPayloadPacket(new SyncPayloadS2C(challenge)));
+	}
+	
 	private void registerUpToDateCheckPacketReceiver(
 		final ServerConfigurationPacketListenerImpl originalHandler,
 		final byte[] challenge,
@@ -81,7 +124,12 @@ public class AuthBackServerNetworking
 			originalHandler,
 			SyncPayloadC2S.ID,
 			(payload, context) -> {
-				final PublicKey publicKey = new Ed25519KeyDecoder().decodePublic(payload.publicKey());
+				// Reuse the already decoded key if it's known
+				final PublicKey knownPublicKey =
+					this.serverProfilePublicKeysManager().find(profile.id(), payload.publicKey());
+				final PublicKey publicKey = knownPublicKey != null
+					? knownPublicKey
+					: new Ed25519KeyDecoder().decodePublic(payload.publicKey());
 				
 				if(!Ed25519Signature.isValidSignature(challenge, payload.signature(), publicKey))
 				{
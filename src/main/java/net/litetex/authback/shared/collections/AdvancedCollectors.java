@@ -19,6 +19,21 @@ public final class AdvancedCollectors
 			LinkedHashMap::new);
 	}
 	
+	/**
+	 * Same as {@link #toLinkedHashMap(Function, Function)} but presizes the map to avoid rehashing.
+	 */
+	public static <T, K, V> Collector<T, ?, LinkedHashMap<K, V>> toLinkedHashMap(
+		final Function<T, K> keyMapper,
+		final Function<T, V> valueMapper,
+		final int expectedSize)
+	{
+		return Collectors.toMap(
+			keyMapper,
+			valueMapper,
+			(l, r) -> r,
+			() -> LinkedHashMap.newLinkedHashMap(expectedSize));
+	}
+	
 	private AdvancedCollectors()
 	{
 	}
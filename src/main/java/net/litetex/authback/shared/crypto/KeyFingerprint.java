@@ -0,0 +1,104 @@
+package net.litetex.authback.shared.crypto;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import net.litetex.authback.shared.external.org.apache.commons.codec.DecoderException;
+import net.litetex.authback.shared.parse.FastParsers;
+
+
+/**
+ * Identifies an encoded key by the first 128 bits of its SHA-256 hash.
+ * <p>
+ * In contrast to e.g. {@link java.util.Arrays#hashCode(byte[])} collisions are practically impossible.
+ * </p>
+ */
+public record KeyFingerprint(
+	long high,
+	long low
+)
+{
+	public static final int LENGTH_BYTES = 16;
+	public static final int LENGTH_HEX = LENGTH_BYTES * 2;
+	
+	private static final int SHA_256_LENGTH_BYTES = 32;
+	
+	// Reused per thread so that calculating a fingerprint doesn't allocate
+	private static final ThreadLocal<DigestContext> DIGEST_CONTEXT = ThreadLocal.withInitial(DigestContext::new);
+	
+	public static KeyFingerprint of(final byte[] encodedKey)
+	{
+		final DigestContext ctx = DIGEST_CONTEXT.get();
+		try
+		{
+			ctx.digest.update(encodedKey);
+			ctx.digest.digest(ctx.buffer, 0, SHA_256_LENGTH_BYTES);
+		}
+		catch(final DigestException e)
+		{
+			ctx.digest.reset();
+			throw new IllegalStateException("Failed to calculate fingerprint", e);
+		}
+		return new KeyFingerprint(readLong(ctx.buffer, 0), readLong(ctx.buffer, Long.BYTES));
+	}
+	
+	public static KeyFingerprint fromHex(final String hex) throws DecoderException
+	{
+		if(hex.length() != LENGTH_HEX)
+		{
+			throw new DecoderException("Fingerprint must have " + LENGTH_HEX + " hex characters");
+		}
+		try
+		{
+			// Parsed directly into the longs - without an intermediate byte array
+			return new KeyFingerprint(
+				FastParsers.parseHexLong(hex, 0, LENGTH_HEX / 2),
+				FastParsers.parseHexLong(hex, LENGTH_HEX / 2, LENGTH_HEX / 2));
+		}
+		catch(final IllegalArgumentException iae)
+		{
+			throw new DecoderException(iae.getMessage(), iae);
+		}
+	}
+	
+	public boolean matches(final long otherHigh, final long otherLow)
+	{
+		return this.high == otherHigh && this.low == otherLow;
+	}
+	
+	public String toHex()
+	{
+		return String.format(Locale.ROOT, "%016x%016x", this.high, this.low);
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private static long readLong(final byte[] data, final int offset)
+	{
+		long value = 0;
+		for(int i = 0; i < Long.BYTES; i++)
+		{
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		}
+		return value;
+	}
+	
+	private static final class DigestContext
+	{
+		private final MessageDigest digest;
+		private final byte[] buffer = new byte[SHA_256_LENGTH_BYTES];
+		
+		DigestContext()
+		{
+			try
+			{
+				this.digest = MessageDigest.getInstance("SHA-256");
+			}
+			catch(final NoSuchAlgorithmException e)
+			{
+				throw new IllegalStateException("Failed to find SHA-256 algorithm", e);
+			}
+		}
+	}
+}
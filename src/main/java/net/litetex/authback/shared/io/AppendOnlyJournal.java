@@ -0,0 +1,184 @@
+package net.litetex.authback.shared.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+
+import com.google.gson.Gson;
+
+
+/**
+ * A journal that records small changes as JSON lines next to a snapshot file.
+ * <p>
+ * Appending only writes the changes itself, so the costs don't depend on the size of the snapshot.
+ * The owner is responsible to replay the journal after reading the snapshot
+ * and to {@link #reset()} it once a new snapshot was written (compaction).
+ * </p>
+ */
+public class AppendOnlyJournal<E>
+{
+	private static final int ESTIMATED_ENTRY_LENGTH = 128;
+	
+	private final Logger logger;
+	private final Path file;
+	private final Gson gson;
+	private final Class<E> entryClass;
+	
+	private long sizeBytes;
+	
+	public AppendOnlyJournal(final Logger logger, final Path file, final Gson gson, final Class<E> entryClass)
+	{
+		this.logger = logger;
+		this.file = file;
+		this.gson = gson;
+		this.entryClass = entryClass;
+	}
+	
+	/**
+	 * @return the amount of replayed entries
+	 */
+	public int replay(final Consumer<E> consumer)
+	{
+		final long startMs = System.currentTimeMillis();
+		
+		int replayed = 0;
+		int skipped = 0;
+		try(final BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8))
+		{
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				if(line.isBlank())
+				{
+					continue;
+				}
+				
+				final E entry;
+				try
+				{
+					entry = this.gson.fromJson(line, this.entryClass);
+				}
+				catch(final Exception ex)
+				{
+					// Most likely a truncated last line caused by a crash during appending
+					skipped++;
+					this.logger.debug("Skipping unreadable journal entry in {}", this.file, ex);
+					continue;
+				}
+				
+				if(entry != null)
+				{
+					consumer.accept(entry);
+					replayed++;
+				}
+			}
+			
+			this.sizeBytes = Files.size(this.file);
+		}
+		catch(final NoSuchFileException nsfe)
+		{
+			this.sizeBytes = 0;
+			return 0;
+		}
+		catch(final Exception ex)
+		{
+			this.logger.warn("Failed to replay journal {}", this.file, ex);
+		}
+		
+		if(skipped > 0)
+		{
+			this.logger.warn("Skipped {}x unreadable entries while replaying journal {}", skipped, this.file);
+		}
+		this.logger.debug(
+			"Replaying {}x entries of {} took {}ms",
+			replayed,
+			this.file,
+			System.currentTimeMillis() - startMs);
+		return replayed;
+	}
+	
+	public boolean append(final Collection<E> entries)
+	{
+		if(entries.isEmpty())
+		{
+			return true;
+		}
+		
+		try
+		{
+			final long startMs = System.currentTimeMillis();
+			
+			Files.createDirectories(this.file.getParent());
+			try(final FileChannel channel = FileChannel.open(
+				this.file,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+				final Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8))
+			{
+				final StringBuilder sb = new StringBuilder(entries.size() * ESTIMATED_ENTRY_LENGTH);
+				for(final E entry : entries)
+				{
+					sb.append(this.gson.toJson(entry)).append('\n');
+				}
+				writer.write(sb.toString());
+				writer.flush();
+				
+				if(Persister.fsync())
+				{
+					channel.force(false);
+				}
+				this.sizeBytes = channel.size();
+			}
+			
+			this.logger.debug(
+				"Appending {}x entries to {} took {}ms",
+				entries.size(),
+				this.file,
+				System.currentTimeMillis() - startMs);
+			return true;
+		}
+		catch(final Exception ex)
+		{
+			this.logger.warn("Failed to append to journal {}", this.file, ex);
+			return false;
+		}
+	}
+	
+	/**
+	 * Removes all entries. Should be called after a snapshot containing all changes was written.
+	 */
+	public void reset()
+	{
+		try
+		{
+			Files.deleteIfExists(this.file);
+			this.sizeBytes = 0;
+		}
+		catch(final IOException ioe)
+		{
+			this.logger.warn("Failed to reset journal {}", this.file, ioe);
+		}
+	}
+	
+	public long sizeBytes()
+	{
+		return this.sizeBytes;
+	}
+	
+	public Path file()
+	{
+		return this.file;
+	}
+}
@@ -0,0 +1,112 @@
+package net.litetex.authback.shared.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Format in which stores are persisted.
+ * <p>
+ * Stores are always configured with the path of their JSON file, the path for other formats is derived from it.
+ * </p>
+ */
+public enum PersistFormat
+{
+	/**
+	 * Human-readable
+	 */
+	JSON(".json"),
+	/**
+	 * Compact and fast - Only readable by the mod
+	 */
+	BINARY(".bin");
+	
+	private static final Logger LOG = LoggerFactory.getLogger(PersistFormat.class);
+	
+	private static final String JSON_EXTENSION = ".json";
+	
+	private final String extension;
+	
+	PersistFormat(final String extension)
+	{
+		this.extension = extension;
+	}
+	
+	public static PersistFormat parse(final String value)
+	{
+		try
+		{
+			return PersistFormat.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		}
+		catch(final IllegalArgumentException iae)
+		{
+			LOG.warn("Unknown persist format '{}' - using {}", value, JSON);
+			return JSON;
+		}
+	}
+	
+	public Path resolve(final Path jsonFile)
+	{
+		return jsonFile.resolveSibling(baseName(jsonFile) + this.extension);
+	}
+	
+	public PersistFormat other()
+	{
+		return this == JSON ? BINARY : JSON;
+	}
+	
+	/**
+	 * Determines the format that should be read.
+	 * <p>
+	 * This is usually the current format. However if only a file in the other format exists
+	 * (e.g. because the format was changed) it will be read instead and therefore imported.
+	 * </p>
+	 */
+	public PersistFormat formatToRead(final Path jsonFile)
+	{
+		final PersistFormat other = this.other();
+		return !Files.exists(this.resolve(jsonFile)) && Files.exists(other.resolve(jsonFile))
+			? other
+			: this;
+	}
+	
+	/**
+	 * Deletes the file of the other format, so that it's not imported accidentally when the format is changed.
+	 */
+	public void deleteOtherFormat(final Path jsonFile)
+	{
+		final Path otherFile = this.other().resolve(jsonFile);
+		try
+		{
+			if(Files.deleteIfExists(otherFile))
+			{
+				LOG.debug("Deleted {} as it was replaced by {}", otherFile, this.resolve(jsonFile));
+			}
+		}
+		catch(final IOException ioe)
+		{
+			LOG.warn("Failed to delete {}", otherFile, ioe);
+		}
+	}
+	
+	/**
+	 * @return Path for exporting the human-readable JSON representation independent of the used format
+	 */
+	public static Path exportFile(final Path jsonFile)
+	{
+		return jsonFile.resolveSibling(baseName(jsonFile) + ".export" + JSON_EXTENSION);
+	}
+	
+	private static String baseName(final Path jsonFile)
+	{
+		final String fileName = jsonFile.getFileName().toString();
+		return fileName.endsWith(JSON_EXTENSION)
+			? fileName.substring(0, fileName.length() - JSON_EXTENSION.length())
+			: fileName;
+	}
+}
@@ -0,0 +1,273 @@
+package net.litetex.authback.shared.io;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Coalesces the save requests of persistent stores into as few writes as possible.
+ * <p>
+ * A store registers itself once and afterwards only marks itself as dirty when something changed.
+ * The actual write is executed on a single background thread once
+ * <ul>
+ *     <li>no further modification happened during the debounce duration or</li>
+ *     <li>the max delay (counted from the first unsaved modification) is reached.</li>
+ * </ul>
+ * Failed saves are retried after the max delay.
+ * All dirty stores are flushed when the JVM shuts down.
+ */
+public class PersistScheduler
+{
+	private static final Logger LOG = LoggerFactory.getLogger(PersistScheduler.class);
+	
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+	
+	private final long debounceNanos;
+	private final long maxDelayNanos;
+	
+	private final ScheduledThreadPoolExecutor executor;
+	private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+	
+	private final AtomicLong requestedSaves = new AtomicLong();
+	private final AtomicLong executedSaves = new AtomicLong();
+	
+	public PersistScheduler(final Duration debounce, final Duration maxDelay)
+	{
+		if(debounce.isNegative() || maxDelay.isNegative())
+		{
+			throw new IllegalArgumentException("debounce and maxDelay must not be negative");
+		}
+		this.debounceNanos = debounce.toNanos();
+		this.maxDelayNanos = Math.max(maxDelay.toNanos(), this.debounceNanos);
+		
+		this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+			final Thread thread = new Thread(r, "AuthBack-Persister");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Pending (not yet due) saves are executed by flushAll during the shutdown
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "AuthBack-Persister-Shutdown"));
+	}
+	
+	/**
+	 * @param saveAction saves the store and returns <code>true</code> if it was saved successfully
+	 */
+	public Registration register(final String name, final BooleanSupplier saveAction)
+	{
+		final Registration registration = new Registration(name, saveAction);
+		this.registrations.add(registration);
+		return registration;
+	}
+	
+	public void flushAll()
+	{
+		this.registrations.forEach(Registration::flush);
+	}
+	
+	private void shutdown()
+	{
+		// Don't interrupt a running save - it would be aborted (ClosedByInterruptException)
+		this.executor.shutdown();
+		try
+		{
+			if(!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+			{
+				LOG.warn("Running saves did not finish within {}s", SHUTDOWN_TIMEOUT_SECONDS);
+			}
+		}
+		catch(final InterruptedException iex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		this.flushAll();
+		
+		LOG.debug(
+			"Shutdown - requested {}x saves, executed {}x, coalesced {}x",
+			this.requestedSaves(),
+			this.executedSaves(),
+			this.coalescedSaves());
+	}
+	
+	public long requestedSaves()
+	{
+		return this.requestedSaves.get();
+	}
+	
+	public long executedSaves()
+	{
+		return this.executedSaves.get();
+	}
+	
+	/**
+	 * @return the amount of writes that were avoided due to coalescing
+	 */
+	public long coalescedSaves()
+	{
+		return Math.max(this.requestedSaves() - this.executedSaves(), 0);
+	}
+	
+	public final class Registration
+	{
+		private final String name;
+		private final BooleanSupplier saveAction;
+		
+		private final Object lock = new Object();
+		private boolean dirty;
+		private boolean scheduled;
+		private long firstDirtyNanos;
+		private long lastDirtyNanos;
+		
+		Registration(final String name, final BooleanSupplier saveAction)
+		{
+			this.name = name;
+			this.saveAction = saveAction;
+		}
+		
+		public void markDirty()
+		{
+			PersistScheduler.this.requestedSaves.incrementAndGet();
+			
+			final long now = System.nanoTime();
+			synchronized(this.lock)
+			{
+				if(!this.dirty)
+				{
+					this.dirty = true;
+					this.firstDirtyNanos = now;
+				}
+				this.lastDirtyNanos = now;
+				
+				// A pending check will pick up the new modification time
+				if(!this.scheduled)
+				{
+					this.scheduled = true;
+					this.schedule(PersistScheduler.this.debounceNanos);
+				}
+			}
+		}
+		
+		/**
+		 * Requests that pending modifications are written as soon as possible (without blocking).
+		 */
+		public void flushAsync()
+		{
+			PersistScheduler.this.requestedSaves.incrementAndGet();
+			synchronized(this.lock)
+			{
+				this.dirty = true;
+			}
+			this.execute(this::flush);
+		}
+		
+		private void schedule(final long delayNanos)
+		{
+			try
+			{
+				PersistScheduler.this.executor.schedule(this::checkDue, delayNanos, TimeUnit.NANOSECONDS);
+			}
+			catch(final Exception ex)
+			{
+				// Executor is shut down -> Will be flushed by shutdown
+				LOG.debug("Failed to schedule save of {}", this.name, ex);
+			}
+		}
+		
+		private void execute(final Runnable runnable)
+		{
+			try
+			{
+				PersistScheduler.this.executor.execute(runnable);
+			}
+			catch(final Exception ex)
+			{
+				// Executor is shut down -> Will be flushed by shutdown
+				LOG.debug("Failed to execute save of {}", this.name, ex);
+			}
+		}
+		
+		private void checkDue()
+		{
+			synchronized(this.lock)
+			{
+				if(!this.dirty)
+				{
+					this.scheduled = false;
+					return;
+				}
+				
+				final long dueNanos = Math.min(
+					this.lastDirtyNanos + PersistScheduler.this.debounceNanos,
+					this.firstDirtyNanos + PersistScheduler.this.maxDelayNanos);
+				final long remainingNanos = dueNanos - System.nanoTime();
+				if(remainingNanos > 0)
+				{
+					this.schedule(remainingNanos);
+					return;
+				}
+				
+				this.scheduled = false;
+			}
+			
+			this.flush();
+		}
+		
+		void flush()
+		{
+			synchronized(this.lock)
+			{
+				if(!this.dirty)
+				{
+					return;
+				}
+				this.dirty = false;
+			}
+			
+			PersistScheduler.this.executedSaves.incrementAndGet();
+			boolean saved = false;
+			try
+			{
+				saved = this.saveAction.getAsBoolean();
+			}
+			catch(final Exception ex)
+			{
+				LOG.warn("Failed to save {}", this.name, ex);
+			}
+			
+			if(!saved)
+			{
+				this.retry();
+			}
+		}
+		
+		private void retry()
+		{
+			LOG.debug("Retrying save of {} later", this.name);
+			final long now = System.nanoTime();
+			synchronized(this.lock)
+			{
+				if(!this.dirty)
+				{
+					this.dirty = true;
+					this.firstDirtyNanos = now;
+					this.lastDirtyNanos = now;
+				}
+				if(!this.scheduled)
+				{
+					this.scheduled = true;
+					// Using the max delay so that e.g. a permanently failing write doesn't spam the log
+					this.schedule(PersistScheduler.this.maxDelayNanos);
+				}
+			}
+		}
+	}
+}
@@ -1,20 +1,57 @@
 package net.litetex.authback.shared.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Optional;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonNull;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import net.litetex.authback.shared.json.JSONSerializer;
 
 
 public final class Persister
 {
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	// "ABK" + 0
+	private static final int BINARY_MAGIC = 0x41424B00;
+	
+	private static volatile boolean fsync;
+	
+	/**
+	 * @param fsync if the written data should be forced to the storage device before replacing the file.
+	 *              Protects against data loss on power failures but makes saving slower.
+	 */
+	public static void setFsync(final boolean fsync)
+	{
+		Persister.fsync = fsync;
+	}
+	
+	static boolean fsync()
+	{
+		return fsync;
+	}
+	
 	public static <T> Optional<T> tryRead(final Logger logger, final Path path, final Class<T> clazz)
 	{
 		return tryRead(logger, path, JSONSerializer.GSON, clazz);
@@ -26,7 +63,11 @@ public final class Persister
 		{
 			final long startMs = System.currentTimeMillis();
 			
-			final Optional<T> optContent = Optional.ofNullable(gson.fromJson(Files.readString(path), clazz));
+			final Optional<T> optContent;
+			try(final JsonReader reader = gson.newJsonReader(Files.newBufferedReader(path, StandardCharsets.UTF_8)))
+			{
+				optContent = Optional.ofNullable(gson.fromJson(reader, clazz));
+			}
 			
 			logger.debug("Reading {} took {}ms", path, System.currentTimeMillis() - startMs);
 			return optContent;
@@ -47,14 +88,136 @@ public final class Persister
 		return trySave(logger, path, JSONSerializer.GSON, value);
 	}
 	
+	/**
+	 * Saves the value by streaming it into a temporary file, which then atomically replaces the original file.
+	 * <p>
+	 * This way the JSON text is never materialized in memory and
+	 * a crash during the write can't leave a truncated file behind.
+	 * Note that the value itself is completely created in memory - for large stores use {@link #tryStream}.
+	 * </p>
+	 */
 	public static <T> boolean trySave(final Logger logger, final Path path, final Gson gson, final Supplier<T> value)
 	{
+		return tryStream(logger, path, gson, (jsonWriter, g) -> {
+			final T v = value.get();
+			if(v != null)
+			{
+				g.toJson(v, v.getClass(), jsonWriter);
+			}
+			else
+			{
+				g.toJson(JsonNull.INSTANCE, jsonWriter);
+			}
+		});
+	}
+	
+	public static boolean tryStream(final Logger logger, final Path path, final JsonStreamWriter streamWriter)
+	{
+		return tryStream(logger, path, JSONSerializer.GSON, streamWriter);
+	}
+	
+	/**
+	 * Like {@link #trySave} but the document is written by the caller (e.g. entry by entry from a snapshot).
+	 * <p>
+	 * This way the memory required for saving is independent of the size of the store.
+	 * </p>
+	 */
+	public static boolean tryStream(
+		final Logger logger,
+		final Path path,
+		final Gson gson,
+		final JsonStreamWriter streamWriter)
+	{
+		return tryWriteAtomic(logger, path, channel -> {
+			// Closed together with the channel
+			final Writer writer = new BufferedWriter(
+				Channels.newWriter(channel, StandardCharsets.UTF_8),
+				WRITE_BUFFER_SIZE);
+			final JsonWriter jsonWriter = gson.newJsonWriter(writer);
+			streamWriter.write(jsonWriter, gson);
+			jsonWriter.flush();
+		});
+	}
+	
+	public static <T> Optional<T> tryReadBinary(final Logger logger, final Path path, final BinaryReader<T> reader)
+	{
+		try
+		{
+			final long startMs = System.currentTimeMillis();
+			
+			final Optional<T> optContent;
+			try(final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(path),
+				READ_BUFFER_SIZE)))
+			{
+				final int magic = in.readInt();
+				if(magic != BINARY_MAGIC)
+				{
+					throw new IOException("Unexpected file header " + Integer.toHexString(magic));
+				}
+				optContent = Optional.ofNullable(reader.read(in, in.readInt()));
+			}
+			
+			logger.debug("Reading {} took {}ms", path, System.currentTimeMillis() - startMs);
+			return optContent;
+		}
+		catch(final NoSuchFileException nsfe)
+		{
+			return Optional.empty();
+		}
+		catch(final Exception ex)
+		{
+			logger.warn("Failed to read {}", path, ex);
+			return Optional.empty();
+		}
+	}
+	
+	/**
+	 * Saves the value in a custom binary format. The file is replaced atomically (see JSON variant).
+	 *
+	 * @param version the version of the format, which is passed to the {@link BinaryReader} when reading
+	 */
+	public static boolean trySaveBinary(
+		final Logger logger,
+		final Path path,
+		final int version,
+		final BinaryWriter writer)
+	{
+		return tryWriteAtomic(logger, path, channel -> {
+			// Closed together with the channel
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Channels.newOutputStream(channel),
+				WRITE_BUFFER_SIZE));
+			out.writeInt(BINARY_MAGIC);
+			out.writeInt(version);
+			writer.write(out);
+			out.flush();
+		});
+	}
+	
+	private static boolean tryWriteAtomic(final Logger logger, final Path path, final ChannelWriter channelWriter)
+	{
+		final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
 		try
 		{
 			final long startMs = System.currentTimeMillis();
 			
 			Files.createDirectories(path.getParent());
-			Files.writeString(path, gson.toJson(value.get()));
+			try(final FileChannel channel = FileChannel.open(
+				tempPath,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				channelWriter.write(channel);
+				
+				if(fsync)
+				{
+					channel.force(true);
+				}
+			}
+			
+			moveReplacing(tempPath, path);
 			
 			logger.debug("Saving {} took {}ms", path, System.currentTimeMillis() - startMs);
 			return true;
@@ -62,10 +225,65 @@ public final class Persister
 		catch(final Exception ex)
 		{
 			logger.warn("Failed to save {}", path, ex);
+			deleteQuietly(logger, tempPath);
 			return false;
 		}
 	}
 	
+	private static void moveReplacing(final Path source, final Path target) throws IOException
+	{
+		try
+		{
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(final AtomicMoveNotSupportedException ex)
+		{
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	private static void deleteQuietly(final Logger logger, final Path path)
+	{
+		try
+		{
+			Files.deleteIfExists(path);
+		}
+		catch(final IOException ioe)
+		{
+			logger.debug("Failed to delete {}", path, ioe);
+		}
+	}
+	
+	@FunctionalInterface
+	public interface JsonStreamWriter
+	{
+		/**
+		 * @param gson can be used to write single entries
+		 */
+		void write(JsonWriter writer, Gson gson) throws IOException;
+	}
+	
+	
+	@FunctionalInterface
+	public interface BinaryWriter
+	{
+		void write(DataOutputStream out) throws IOException;
+	}
+	
+	
+	@FunctionalInterface
+	public interface BinaryReader<T>
+	{
+		T read(DataInputStream in, int version) throws IOException;
+	}
+	
+	
+	@FunctionalInterface
+	interface ChannelWriter
+	{
+		void write(FileChannel channel) throws IOException;
+	}
+	
 	private Persister()
 	{
 	}
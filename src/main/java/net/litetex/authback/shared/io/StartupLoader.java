@@ -0,0 +1,86 @@
+package net.litetex.authback.shared.io;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Loads the stores in parallel on a dedicated pool during startup.
+ * <p>
+ * The load time and amount of loaded entries of each store are recorded.
+ * The threads of the pool are terminated once they are idle, so the pool costs nothing after the startup.
+ * </p>
+ */
+public class StartupLoader
+{
+	private static final Logger LOG = LoggerFactory.getLogger(StartupLoader.class);
+	
+	private static final long KEEP_ALIVE_SECONDS = 30;
+	
+	private final ThreadPoolExecutor executor;
+	private final List<Status> statuses = new CopyOnWriteArrayList<>();
+	
+	public StartupLoader(final int threads)
+	{
+		final int poolSize = Math.max(threads, 1);
+		final AtomicInteger threadCounter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(
+			poolSize,
+			poolSize,
+			KEEP_ALIVE_SECONDS,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(),
+			r -> {
+				final Thread thread = new Thread(r, "AuthBack-Startup-" + threadCounter.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * @param loader       creates the store (which reads its file)
+	 * @param entryCounter determines the amount of loaded entries of the store
+	 */
+	public <T> CompletableFuture<T> load(
+		final String name,
+		final Supplier<T> loader,
+		final ToIntFunction<T> entryCounter)
+	{
+		return CompletableFuture.supplyAsync(
+			() -> {
+				final long startMs = System.currentTimeMillis();
+				final T store = loader.get();
+				final long durationMs = System.currentTimeMillis() - startMs;
+				
+				final int entries = entryCounter.applyAsInt(store);
+				this.statuses.add(new Status(name, durationMs, entries));
+				LOG.info("Loaded {} with {}x entries in {}ms", name, entries, durationMs);
+				return store;
+			},
+			this.executor);
+	}
+	
+	public List<Status> statuses()
+	{
+		return List.copyOf(this.statuses);
+	}
+	
+	public record Status(
+		String name,
+		long durationMs,
+		int entries
+	)
+	{
+	}
+}
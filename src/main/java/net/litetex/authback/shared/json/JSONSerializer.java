@@ -31,6 +31,11 @@ public final class JSONSerializer
 		.setPrettyPrinting()
 		.create();
 	
+	// Same as GSON but without pretty printing, e.g. for line based formats
+	public static final Gson COMPACT_GSON = new GsonBuilder()
+		.registerTypeAdapter(Instant.class, InstantConverter.INSTANCE)
+		.create();
+	
 	// Same as ObjectMapper#create but faster
 	// Use only for game internal stuff that is not related to the mod
 	public static final ObjectMapper FAST_OBJECT_MAPPER = new ObjectMapper(new GsonBuilder()
@@ -0,0 +1,69 @@
+package net.litetex.authback.shared.maintenance;
+
+import java.util.Map;
+import java.util.SequencedMap;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import net.litetex.authback.shared.sync.SynchronizedContainer;
+
+
+/**
+ * Removes entries from the oldest end of an ordered map in small batches.
+ * <p>
+ * The lock of the map is only held for a single batch and released in between,
+ * so that lookups don't need to wait for the whole cleanup.
+ * </p>
+ */
+public final class IncrementalCleanup
+{
+	/**
+	 * @param oldestEntry   returns the oldest entry of the map, e.g. {@link SequencedMap#firstEntry()}
+	 * @param shouldRemove  decides (with the current size of the map) if the oldest entry should be removed.
+	 *                      As the map is ordered the cleanup stops at the first entry that should be kept.
+	 * @param remover       removes the entry with the key (called while holding the lock)
+	 * @param batchSize     maximum amount of entries to remove per batch; 0 or less = everything in one batch
+	 * @return the amount of removed entries
+	 */
+	public static <K, V, M extends SequencedMap<K, V>> int removeOldest(
+		final SynchronizedContainer<M> mapSC,
+		final Function<M, Map.Entry<K, V>> oldestEntry,
+		final BiPredicate<V, Integer> shouldRemove,
+		final Consumer<K> remover,
+		final int batchSize)
+	{
+		final int maxPerBatch = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+		
+		int removed = 0;
+		while(true)
+		{
+			final int removedInBatch = mapSC.supplyWithLock(map -> {
+				int count = 0;
+				while(count < maxPerBatch)
+				{
+					final Map.Entry<K, V> entry = oldestEntry.apply(map);
+					if(entry == null || !shouldRemove.test(entry.getValue(), map.size()))
+					{
+						break;
+					}
+					remover.accept(entry.getKey());
+					count++;
+				}
+				return count;
+			});
+			removed += removedInBatch;
+			
+			if(removedInBatch < maxPerBatch)
+			{
+				return removed;
+			}
+			// Give waiting lookups a chance to acquire the lock
+			Thread.yield();
+		}
+	}
+	
+	private IncrementalCleanup()
+	{
+	}
+}
@@ -0,0 +1,208 @@
+package net.litetex.authback.shared.maintenance;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Executes the maintenance (e.g. removal of expired entries, trimming, refreshing) of caches/stores periodically
+ * on a single background thread.
+ * <p>
+ * This way lookups never need to execute the maintenance themselves.
+ * The intervals are jittered so that the tasks don't all run at the same time.
+ * </p>
+ */
+public class MaintenanceScheduler
+{
+	private static final Logger LOG = LoggerFactory.getLogger(MaintenanceScheduler.class);
+	
+	private final long intervalNanos;
+	private final double jitterFactor;
+	private final int cleanupBatchSize;
+	
+	private final ScheduledExecutorService executor;
+	private final List<Task> tasks = new CopyOnWriteArrayList<>();
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public MaintenanceScheduler(final Duration interval, final int jitterPercent, final int cleanupBatchSize)
+	{
+		if(!interval.isPositive())
+		{
+			throw new IllegalArgumentException("interval must be positive");
+		}
+		this.intervalNanos = interval.toNanos();
+		this.jitterFactor = Math.clamp(jitterPercent, 0, 100) / 100.0;
+		this.cleanupBatchSize = cleanupBatchSize;
+		
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "AuthBack-Maintenance");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+	
+	/**
+	 * @param action executes the maintenance and returns the amount of processed items (e.g. removed entries)
+	 */
+	public Task register(final String name, final IntSupplier action)
+	{
+		final Task task = new Task(name, action);
+		this.tasks.add(task);
+		task.schedule(this.jittered(this.intervalNanos));
+		return task;
+	}
+	
+	/**
+	 * @return the maximum amount of entries that a cleanup should process while holding a lock
+	 * (see {@link IncrementalCleanup})
+	 */
+	public int cleanupBatchSize()
+	{
+		return this.cleanupBatchSize;
+	}
+	
+	public List<Task.Status> statuses()
+	{
+		return this.tasks.stream()
+			.map(Task::status)
+			.toList();
+	}
+	
+	private long jittered(final long delayNanos)
+	{
+		final long maxJitterNanos = (long)(this.intervalNanos * this.jitterFactor);
+		if(maxJitterNanos <= 0)
+		{
+			return delayNanos;
+		}
+		return Math.max(delayNanos + ThreadLocalRandom.current().nextLong(-maxJitterNanos, maxJitterNanos + 1), 0);
+	}
+	
+	public final class Task
+	{
+		private final String name;
+		private final IntSupplier action;
+		
+		// Prevents that multiple requested runs are queued
+		private final AtomicBoolean runRequested = new AtomicBoolean();
+		
+		private final Object statsLock = new Object();
+		private long runs;
+		private Instant lastRunAt;
+		private long lastDurationMs;
+		private int lastProcessedItems;
+		private long totalProcessedItems;
+		
+		Task(final String name, final IntSupplier action)
+		{
+			this.name = name;
+			this.action = action;
+		}
+		
+		/**
+		 * Requests a run as soon as possible (without blocking), e.g. when a size limit was exceeded.
+		 */
+		public void requestRun()
+		{
+			if(this.runRequested.compareAndSet(false, true))
+			{
+				this.execute(() -> {
+					this.runRequested.set(false);
+					this.run();
+				});
+			}
+		}
+		
+		private void schedule(final long delayNanos)
+		{
+			try
+			{
+				MaintenanceScheduler.this.executor.schedule(this::runAndReschedule, delayNanos, TimeUnit.NANOSECONDS);
+			}
+			catch(final Exception ex)
+			{
+				LOG.debug("Failed to schedule maintenance of {}", this.name, ex);
+			}
+		}
+		
+		private void execute(final Runnable runnable)
+		{
+			try
+			{
+				MaintenanceScheduler.this.executor.execute(runnable);
+			}
+			catch(final Exception ex)
+			{
+				LOG.debug("Failed to execute maintenance of {}", this.name, ex);
+			}
+		}
+		
+		private void runAndReschedule()
+		{
+			this.run();
+			this.schedule(MaintenanceScheduler.this.jittered(MaintenanceScheduler.this.intervalNanos));
+		}
+		
+		private void run()
+		{
+			final long startMs = System.currentTimeMillis();
+			int processedItems = 0;
+			try
+			{
+				processedItems = this.action.getAsInt();
+			}
+			catch(final Exception ex)
+			{
+				LOG.warn("Failed to execute maintenance of {}", this.name, ex);
+			}
+			
+			final long durationMs = System.currentTimeMillis() - startMs;
+			synchronized(this.statsLock)
+			{
+				this.runs++;
+				this.lastRunAt = Instant.now();
+				this.lastDurationMs = durationMs;
+				this.lastProcessedItems = processedItems;
+				this.totalProcessedItems += processedItems;
+			}
+			LOG.debug("Maintenance of {} processed {}x items, took {}ms", this.name, processedItems, durationMs);
+		}
+		
+		public Status status()
+		{
+			synchronized(this.statsLock)
+			{
+				return new Status(
+					this.name,
+					this.runs,
+					this.lastRunAt,
+					this.lastDurationMs,
+					this.lastProcessedItems,
+					this.totalProcessedItems);
+			}
+		}
+		
+		public record Status(
+			String name,
+			long runs,
+			Instant lastRunAt,
+			long lastDurationMs,
+			int lastProcessedItems,
+			long totalProcessedItems
+		)
+		{
+		}
+	}
+}
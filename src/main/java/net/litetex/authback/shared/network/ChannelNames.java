@@ -10,6 +10,9 @@ public final class ChannelNames
 	public static final Identifier SYNC_S2C = create("sync_s2c_v1");
 	public static final Identifier SYNC_C2S = create("sync_c2s_v1");
 	
+	public static final Identifier SYNC_ANNOUNCE_REQUEST_S2C = create("sync_announce_request_s2c_v2");
+	public static final Identifier SYNC_ANNOUNCE_C2S = create("sync_announce_c2s_v2");
+	
 	private static Identifier create(final String name)
 	{
 		return Identifier.fromNamespaceAndPath("authback", name);
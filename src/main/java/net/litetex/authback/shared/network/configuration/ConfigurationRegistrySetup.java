@@ -9,6 +9,13 @@ public final class ConfigurationRegistrySetup
 	{
 		PayloadTypeRegistry.clientboundConfiguration().register(SyncPayloadS2C.ID, SyncPayloadS2C.PACKET_CODEC);
 		PayloadTypeRegistry.serverboundConfiguration().register(SyncPayloadC2S.ID, SyncPayloadC2S.PACKET_CODEC);
+		
+		PayloadTypeRegistry.clientboundConfiguration().register(
+			SyncAnnounceRequestPayloadS2C.ID,
+			SyncAnnounceRequestPayloadS2C.PACKET_CODEC);
+		PayloadTypeRegistry.serverboundConfiguration().register(
+			SyncAnnouncePayloadC2S.ID,
+			SyncAnnouncePayloadC2S.PACKET_CODEC);
 	}
 	
 	private ConfigurationRegistrySetup()
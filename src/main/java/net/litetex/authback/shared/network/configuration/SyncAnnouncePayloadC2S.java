@@ -0,0 +1,39 @@
+package net.litetex.authback.shared.network.configuration;
+
+import net.litetex.authback.shared.crypto.KeyFingerprint;
+import net.litetex.authback.shared.network.ChannelNames;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+
+
+public record SyncAnnouncePayloadC2S(
+	KeyFingerprint fingerprint
+) implements CustomPacketPayload
+{
+	public static final Type<SyncAnnouncePayloadC2S> ID =
+		new Type<>(ChannelNames.SYNC_ANNOUNCE_C2S);
+	
+	public static final StreamCodec<FriendlyByteBuf, SyncAnnouncePayloadC2S> PACKET_CODEC =
+		CustomPacketPayload.codec(
+			SyncAnnouncePayloadC2S::write,
+			SyncAnnouncePayloadC2S::new
+		);
+	
+	public SyncAnnouncePayloadC2S(final FriendlyByteBuf buf)
+	{
+		this(new KeyFingerprint(buf.readLong(), buf.readLong()));
+	}
+	
+	@Override
+	public Type<? extends CustomPacketPayload> type()
+	{
+		return ID;
+	}
+	
+	private void write(final FriendlyByteBuf friendlyByteBuf)
+	{
+		friendlyByteBuf.writeLong(this.fingerprint.high());
+		friendlyByteBuf.writeLong(this.fingerprint.low());
+	}
+}
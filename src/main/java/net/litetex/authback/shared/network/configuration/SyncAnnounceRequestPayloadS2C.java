@@ -0,0 +1,43 @@
+package net.litetex.authback.shared.network.configuration;
+
+import net.litetex.authback.shared.network.ChannelNames;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+
+
+/**
+ * Asks the client to announce the fingerprint of its current key (v2 sync).
+ * <p>
+ * The server only requests a signature (v1 sync) afterwards if the key is unknown or wasn't verified recently.
+ * </p>
+ */
+public record SyncAnnounceRequestPayloadS2C() implements CustomPacketPayload
+{
+	public static final CustomPacketPayload.Type<SyncAnnounceRequestPayloadS2C> ID =
+		new CustomPacketPayload.Type<>(ChannelNames.SYNC_ANNOUNCE_REQUEST_S2C);
+	
+	public static final StreamCodec<FriendlyByteBuf, SyncAnnounceRequestPayloadS2C> PACKET_CODEC =
+		CustomPacketPayload.codec(
+			SyncAnnounceRequestPayloadS2C::write,
+			SyncAnnounceRequestPayloadS2C::new
+		);
+	
+	@SuppressWarnings("unused")
+	public SyncAnnounceRequestPayloadS2C(final FriendlyByteBuf buf)
+	{
+		this();
+	}
+	
+	@Override
+	public Type<? extends CustomPacketPayload> type()
+	{
+		return ID;
+	}
+	
+	@SuppressWarnings("unused")
+	private void write(final FriendlyByteBuf friendlyByteBuf)
+	{
+		// Nothing to write
+	}
+}
@@ -0,0 +1,120 @@
+package net.litetex.authback.shared.parse;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import net.litetex.authback.shared.external.org.apache.commons.codec.DecoderException;
+
+
+/**
+ * Parsers for the hot paths when loading stores (e.g. thousands of UUIDs and hex-encoded keys).
+ * <p>
+ * Other than {@link UUID#fromString(String)} or {@code Hex.decodeHex} these don't allocate intermediate
+ * objects and use a lookup table for the hex digits.
+ * </p>
+ */
+public final class FastParsers
+{
+	private static final int UUID_LENGTH = 36;
+	// Index = ASCII character; -1 = not a hex digit
+	private static final byte[] HEX_VALUES = createHexValues();
+	
+	/**
+	 * Parses the canonical representation of a UUID (8-4-4-4-12 hex digits).
+	 * Other representations are delegated to {@link UUID#fromString(String)}.
+	 *
+	 * @throws IllegalArgumentException if the value is not a valid UUID
+	 */
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public static UUID parseUUID(final String value)
+	{
+		if(value.length() != UUID_LENGTH
+			|| value.charAt(8) != '-'
+			|| value.charAt(13) != '-'
+			|| value.charAt(18) != '-'
+			|| value.charAt(23) != '-')
+		{
+			return UUID.fromString(value);
+		}
+		
+		final long mostSigBits = parseHexLong(value, 0, 8) << 32
+			| parseHexLong(value, 9, 4) << 16
+			| parseHexLong(value, 14, 4);
+		final long leastSigBits = parseHexLong(value, 19, 4) << 48
+			| parseHexLong(value, 24, 12);
+		return new UUID(mostSigBits, leastSigBits);
+	}
+	
+	/**
+	 * @param length amount of hex digits; at most 16
+	 * @throws IllegalArgumentException if a character is not a hex digit
+	 */
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public static long parseHexLong(final CharSequence value, final int start, final int length)
+	{
+		long result = 0;
+		for(int i = start; i < start + length; i++)
+		{
+			result = result << 4 | hexValue(value, i);
+		}
+		return result;
+	}
+	
+	/**
+	 * Same as {@code Hex.decodeHex(String)}.
+	 */
+	public static byte[] decodeHex(final CharSequence value) throws DecoderException
+	{
+		final int length = value.length();
+		if((length & 1) != 0)
+		{
+			throw new DecoderException("Odd number of characters.");
+		}
+		
+		final byte[] out = new byte[length >> 1];
+		try
+		{
+			for(int i = 0; i < out.length; i++)
+			{
+				out[i] = (byte)parseHexLong(value, i << 1, 2);
+			}
+		}
+		catch(final IllegalArgumentException iae)
+		{
+			throw new DecoderException(iae.getMessage(), iae);
+		}
+		return out;
+	}
+	
+	private static int hexValue(final CharSequence value, final int index)
+	{
+		final char c = value.charAt(index);
+		final int digit = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+		if(digit < 0)
+		{
+			throw new IllegalArgumentException("Illegal hexadecimal character " + c + " at index " + index);
+		}
+		return digit;
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private static byte[] createHexValues()
+	{
+		final byte[] values = new byte[128];
+		Arrays.fill(values, (byte)-1);
+		for(int i = 0; i < 10; i++)
+		{
+			values['0' + i] = (byte)i;
+		}
+		for(int i = 0; i < 6; i++)
+		{
+			values['a' + i] = (byte)(10 + i);
+			values['A' + i] = (byte)(10 + i);
+		}
+		return values;
+	}
+	
+	private FastParsers()
+	{
+	}
+}
@@ -0,0 +1,79 @@
+package net.litetex.authback.shared.sync;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+
+/**
+ * Coalesces concurrent calls with the same key:
+ * The first caller executes the call, all other callers that arrive while it's in flight wait for and share its
+ * result (or exception).
+ * <p>
+ * Results are not cached - once the call completed the next caller executes it again.
+ * </p>
+ */
+public class SingleFlight<K, V>
+{
+	private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder coalescedCalls = new LongAdder();
+	
+	public V execute(final K key, final Supplier<V> call)
+	{
+		final CompletableFuture<V> own = new CompletableFuture<>();
+		final CompletableFuture<V> existing = this.inFlight.putIfAbsent(key, own);
+		if(existing != null)
+		{
+			this.coalescedCalls.increment();
+			return join(existing);
+		}
+		
+		try
+		{
+			final V result = call.get();
+			own.complete(result);
+			return result;
+		}
+		catch(final RuntimeException | Error ex)
+		{
+			own.completeExceptionally(ex);
+			throw ex;
+		}
+		finally
+		{
+			this.inFlight.remove(key, own);
+		}
+	}
+	
+	private static <V> V join(final CompletableFuture<V> future)
+	{
+		try
+		{
+			return future.join();
+		}
+		catch(final CompletionException ex)
+		{
+			// Rethrow the original exception so that callers can handle it like when executing the call themselves
+			if(ex.getCause() instanceof final RuntimeException rex)
+			{
+				throw rex;
+			}
+			if(ex.getCause() instanceof final Error err)
+			{
+				throw err;
+			}
+			throw ex;
+		}
+	}
+	
+	/**
+	 * @return the amount of calls that shared the result of an in-flight call instead of executing it themselves
+	 */
+	public long coalescedCalls()
+	{
+		return this.coalescedCalls.sum();
+	}
+}